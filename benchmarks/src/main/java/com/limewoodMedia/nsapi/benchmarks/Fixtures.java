@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads the API response fixtures in {@code /fixtures}. They follow the shape of live responses
+ * (same tags, realistic sizes) with made-up names, so the benchmarks run offline.
+ * @author Afforess
+ *
+ */
+public final class Fixtures {
+	/** A nation with every shard */
+	public static final String NATION = "nation.xml";
+	/** A large region with nations, RMB messages, embassies and happenings */
+	public static final String REGION = "region.xml";
+	/** The General Assembly with 30000 members (about the size of the live list), delegates, member log and resolution */
+	public static final String WA = "wa.xml";
+	/** One page of world happenings */
+	public static final String HAPPENINGS = "happenings.xml";
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @param name the fixture name
+	 * @return the fixture bytes
+	 */
+	public static byte[] load(String name) {
+		InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+		if (in == null) {
+			throw new IllegalArgumentException("No such fixture: " + name);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int read;
+			while ((read = in.read(buf)) != -1) {
+				out.write(buf, 0, read);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException("IOException reading fixture " + name, e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+}
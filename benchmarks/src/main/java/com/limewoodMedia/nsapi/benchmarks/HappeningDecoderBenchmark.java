@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.benchmarks;
+
+import com.limewoodMedia.nsapi.NationStates;
+import com.limewoodMedia.nsapi.happenings.HappeningClassifier;
+import com.limewoodMedia.nsapi.happenings.HappeningDecoder;
+import com.limewoodMedia.nsapi.happenings.HappeningEvent;
+import com.limewoodMedia.nsapi.holders.HappeningData;
+import com.limewoodMedia.nsapi.holders.HappeningData.EventHappening;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decodes the world happenings fixture. One operation is one event.
+ * @author Afforess
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HappeningDecoderBenchmark {
+	private static final int EVENTS = 100;
+
+	private EventHappening[] happenings;
+
+	@Setup
+	public void setup() throws Exception {
+		NationStates api = new NationStates();
+		HappeningData data = api.getHappeningInfo(api.getInfo(
+				new ByteArrayInputStream(Fixtures.load(Fixtures.HAPPENINGS))));
+		happenings = new EventHappening[EVENTS];
+		for (int i = 0; i < EVENTS; i++) {
+			happenings[i] = data.happenings[i % data.happenings.length];
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EVENTS)
+	public void decode(Blackhole blackhole) {
+		for (EventHappening happening : happenings) {
+			blackhole.consume(HappeningDecoder.DEFAULT.decode(happening));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EVENTS)
+	public void classify(Blackhole blackhole) {
+		for (EventHappening happening : happenings) {
+			blackhole.consume(HappeningClassifier.classify(happening.text));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EVENTS)
+	public void decodeType(Blackhole blackhole) {
+		for (EventHappening happening : happenings) {
+			HappeningEvent.Type type = HappeningDecoder.DEFAULT.decodeType(happening.text);
+			blackhole.consume(type);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.benchmarks;
+
+import com.limewoodMedia.nsapi.util.ListTokenizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.kxml2.io.KXmlParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Reads the 30000 name MEMBERS list of the WA fixture through {@link KXmlParser}, with
+ * {@link ListTokenizer#split(XmlPullParser, char)} (what the parser uses) and with
+ * {@code nextText().split(",")} (what it used before). Both include parsing the document up to
+ * the list.
+ * @author Afforess
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListTokenizerBenchmark {
+	private static final String MEMBERS = "members";
+
+	private byte[] wa;
+
+	@Setup
+	public void setup() {
+		wa = Fixtures.load(Fixtures.WA);
+	}
+
+	@Benchmark
+	public String[] listTokenizer() throws XmlPullParserException, IOException {
+		return ListTokenizer.split(toMembers(), ',');
+	}
+
+	@Benchmark
+	public String[] stringSplit() throws XmlPullParserException, IOException {
+		return toMembers().nextText().split(",");
+	}
+
+	/**
+	 * @return a parser positioned on the MEMBERS start tag
+	 */
+	private XmlPullParser toMembers() throws XmlPullParserException, IOException {
+		KXmlParser xpp = new KXmlParser();
+		xpp.setInput(new ByteArrayInputStream(wa), "ISO-8859-15");
+		while (xpp.next() != XmlPullParser.END_DOCUMENT) {
+			if (xpp.getEventType() == XmlPullParser.START_TAG && xpp.getName().equalsIgnoreCase(MEMBERS)) {
+				return xpp;
+			}
+		}
+		throw new IllegalStateException("No " + MEMBERS + " in " + Fixtures.WA);
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.benchmarks;
+
+import com.limewoodMedia.nsapi.NationStates;
+import com.limewoodMedia.nsapi.enums.WACouncil;
+import com.limewoodMedia.nsapi.holders.HappeningData;
+import com.limewoodMedia.nsapi.holders.NationData;
+import com.limewoodMedia.nsapi.holders.RegionData;
+import com.limewoodMedia.nsapi.holders.WAData;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Parses each fixture document through {@link NationStates#getInfo(java.io.InputStream)} and the
+ * matching NSData entry point. One operation is one document.
+ * @author Afforess
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+	private NationStates api;
+	private byte[] nation;
+	private byte[] region;
+	private byte[] wa;
+	private byte[] happenings;
+
+	@Setup
+	public void setup() {
+		api = new NationStates();
+		nation = Fixtures.load(Fixtures.NATION);
+		region = Fixtures.load(Fixtures.REGION);
+		wa = Fixtures.load(Fixtures.WA);
+		happenings = Fixtures.load(Fixtures.HAPPENINGS);
+	}
+
+	@Benchmark
+	public NationData nation() throws XmlPullParserException, IOException {
+		return api.getNationInfo(api.getInfo(new ByteArrayInputStream(nation)), "testlandia");
+	}
+
+	@Benchmark
+	public RegionData region() throws XmlPullParserException, IOException {
+		return api.getRegionInfo(api.getInfo(new ByteArrayInputStream(region)), "the_pacific");
+	}
+
+	@Benchmark
+	public WAData wa() throws XmlPullParserException, IOException {
+		return api.getWAInfo(api.getInfo(new ByteArrayInputStream(wa)), WACouncil.GENERAL_ASSEMBLY);
+	}
+
+	@Benchmark
+	public HappeningData happenings() throws XmlPullParserException, IOException {
+		return api.getHappeningInfo(api.getInfo(new ByteArrayInputStream(happenings)));
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.stub;
+
+import com.limewoodMedia.nsapi.NationStates;
+import com.limewoodMedia.nsapi.enums.WACouncil;
+import com.limewoodMedia.nsapi.exceptions.RateLimitReachedException;
+import com.limewoodMedia.nsapi.holders.NationData;
+import com.limewoodMedia.nsapi.holders.RegionData;
+import com.limewoodMedia.nsapi.holders.WAData;
+import com.limewoodMedia.nsapi.jdkhttp.JdkHttpTransport;
+import com.limewoodMedia.nsapi.jfr.JfrCallListener;
+import com.limewoodMedia.nsapi.limiter.LocalRateLimiter;
+import com.limewoodMedia.nsapi.metrics.CallEvent;
+import com.limewoodMedia.nsapi.metrics.CallTracer;
+import com.limewoodMedia.nsapi.metrics.Metrics;
+import com.limewoodMedia.nsapi.transport.HttpClientTransport;
+import com.limewoodMedia.nsapi.transport.UrlConnectionTransport;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.Recording;
+
+/**
+ * Drives a {@link NationStates} against a {@link StubServer} with several threads and reports
+ * throughput, latency percentiles and how the rate limiters behaved.
+ * <p>
+ * Options are given as {@code key=value}:
+ * <ul>
+ * <li>threads - client threads (default 8)</li>
+ * <li>duration - seconds to run (default 10)</li>
+ * <li>latency - stub latency as min:max milliseconds (default 0:0)</li>
+ * <li>errorRate - fraction of requests the stub answers with an error (default 0)</li>
+ * <li>errorStatus - the status of those errors (default 429)</li>
+ * <li>lockout - whether a 429 locks the client out for 15 minutes as it would against the real
+ * API (default false, so a run with 429s keeps measuring calls instead of refusals)</li>
+ * <li>serverLimit - requests per 30 seconds the stub allows (default 0, no limit)</li>
+ * <li>clientLimit - the NationStates rate limit (default 100000)</li>
+ * <li>transport - httpclient, urlconnection or jdkhttp (the JDK 11+ {@link JdkHttpTransport}) (default httpclient)</li>
+ * <li>mix - comma separated operations from nation, region, wa, happenings, verify (default all)</li>
+ * <li>jfr - a file to write a flight recording of the {@link JfrCallListener} events to (default none)</li>
+ * </ul>
+ * @author Afforess
+ *
+ */
+public class LoadTest {
+	private static final long REFUSED_BACKOFF = 10L;
+
+	/**
+	 * Counts the calls the client refused itself, passing everything on to a tracer
+	 */
+	private static final class RefusalCounter implements CallTracer {
+		final AtomicLong refused = new AtomicLong();
+		final CallTracer next;
+
+		RefusalCounter(CallTracer next) {
+			this.next = next;
+		}
+
+		@Override
+		public void callStarted(Metrics.Endpoint endpoint) {
+			if (next != null) {
+				next.callStarted(endpoint);
+			}
+		}
+
+		@Override
+		public void phaseStarted(Phase phase) {
+			if (next != null) {
+				next.phaseStarted(phase);
+			}
+		}
+
+		@Override
+		public void phaseEnded(Phase phase) {
+			if (next != null) {
+				next.phaseEnded(phase);
+			}
+		}
+
+		@Override
+		public void callEnded(CallEvent event) {
+			if (event.rateLimited) {
+				refused.incrementAndGet();
+			}
+			if (next != null) {
+				next.callEnded(event);
+			}
+		}
+	}
+
+	/**
+	 * A local rate limiter that counts lockouts and optionally ignores them
+	 */
+	private static final class LoadTestRateLimiter extends LocalRateLimiter {
+		final AtomicLong lockouts = new AtomicLong();
+		final boolean honourLockouts;
+
+		LoadTestRateLimiter(boolean honourLockouts) {
+			this.honourLockouts = honourLockouts;
+		}
+
+		@Override
+		public void lockOut(long until) {
+			lockouts.incrementAndGet();
+			if (honourLockouts) {
+				super.lockOut(until);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("Expected key=value: " + arg);
+			}
+			options.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+		int threads = Integer.parseInt(option(options, "threads", "8"));
+		long duration = Long.parseLong(option(options, "duration", "10")) * 1000L;
+		String[] latency = option(options, "latency", "0:0").split(":");
+		final String[] mix = option(options, "mix", "nation,region,wa,happenings,verify").split(",");
+
+		StubServer server = new StubServer(Math.max(4, threads));
+		server.setLatency(Long.parseLong(latency[0]), Long.parseLong(latency[latency.length - 1]));
+		server.setErrorRate(Double.parseDouble(option(options, "errorRate", "0")));
+		server.setErrorStatus(Integer.parseInt(option(options, "errorStatus", "429")));
+		server.setRateLimit(Integer.parseInt(option(options, "serverLimit", "0")), NationStates.RATE_LIMIT_WINDOW);
+		server.start();
+
+		final NationStates api = new NationStates();
+		api.setUserAgent("ns-api load test");
+		api.setApiUrl(server.getApiUrl());
+		api.setRateLimit(Integer.parseInt(option(options, "clientLimit", "100000")));
+		LoadTestRateLimiter limiter = new LoadTestRateLimiter(Boolean.parseBoolean(option(options, "lockout", "false")));
+		api.setRateLimiter(limiter);
+		String transport = option(options, "transport", "httpclient");
+		if (transport.equals("urlconnection")) {
+			api.setTransport(new UrlConnectionTransport());
+		} else if (transport.equals("httpclient")) {
+			api.setTransport(new HttpClientTransport(threads));
+		} else if (transport.equals("jdkhttp")) {
+			api.setTransport(new JdkHttpTransport());
+		} else {
+			throw new IllegalArgumentException("Unknown transport: " + transport);
+		}
+		String jfr = options.get("jfr");
+		Recording recording = null;
+		RefusalCounter refusals;
+		if (jfr != null) {
+			refusals = new RefusalCounter(new JfrCallListener());
+			recording = new Recording();
+			for (String event : JfrCallListener.EVENT_NAMES) {
+				recording.enable(event);
+			}
+			recording.start();
+		} else {
+			refusals = new RefusalCounter(null);
+		}
+		api.getMetrics().setListener(refusals);
+
+		final long end = System.currentTimeMillis() + duration;
+		final AtomicLong ok = new AtomicLong();
+		final AtomicLong refused = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final List<long[]> latencies = new ArrayList<long[]>();
+		final CountDownLatch done = new CountDownLatch(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			final int offset = t;
+			final long[][] samples = new long[1][1024];
+			final int[] count = new int[1];
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = offset; System.currentTimeMillis() < end; i++) {
+							long begin = System.nanoTime();
+							try {
+								call(api, mix[i % mix.length]);
+								ok.incrementAndGet();
+							} catch (RateLimitReachedException e) {
+								refused.incrementAndGet();
+								Thread.sleep(REFUSED_BACKOFF);
+								continue;
+							} catch (RuntimeException e) {
+								failed.incrementAndGet();
+								continue;
+							}
+							if (count[0] == samples[0].length) {
+								samples[0] = Arrays.copyOf(samples[0], count[0] * 2);
+							}
+							samples[0][count[0]++] = System.nanoTime() - begin;
+						}
+					} catch (InterruptedException e) {
+						// Stop
+					} finally {
+						synchronized (latencies) {
+							latencies.add(Arrays.copyOf(samples[0], count[0]));
+						}
+						done.countDown();
+					}
+				}
+			}, "LoadTest-" + t).start();
+		}
+		done.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		server.stop();
+		if (recording != null) {
+			recording.dump(Paths.get(jfr));
+			recording.close();
+		}
+
+		int total = 0;
+		for (long[] l : latencies) {
+			total += l.length;
+		}
+		long[] all = new long[total];
+		int pos = 0;
+		for (long[] l : latencies) {
+			System.arraycopy(l, 0, all, pos, l.length);
+			pos += l.length;
+		}
+		Arrays.sort(all);
+		System.out.printf("threads=%d duration=%.1fs transport=%s mix=%s%n", threads, seconds, transport, Arrays.toString(mix));
+		System.out.printf("throughput: %.1f calls/s (%d ok, %d refused, %d failed)%n", ok.get() / seconds, ok.get(), refused.get(), failed.get());
+		System.out.printf("latency ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+				percentile(all, 0.5), percentile(all, 0.9), percentile(all, 0.99), percentile(all, 0.999), percentile(all, 1.0));
+		System.out.printf("server: %d requests, %d injected %d errors, %d rate limited 429s%n",
+				server.getRequests(), server.getInjectedErrors(), server.getErrorStatus(), server.getRateLimited429s());
+		System.out.printf("client limiter: %d calls refused locally, %d lockouts (%s), remaining budget %d%n",
+				refusals.refused.get(), limiter.lockouts.get(), limiter.honourLockouts ? "honoured" : "ignored",
+				api.getRateLimitRemaining());
+	}
+
+	private static void call(NationStates api, String op) {
+		if (op.equals("nation")) {
+			api.getNationInfo("testlandia", NationData.Shards.values());
+		} else if (op.equals("region")) {
+			api.getRegionInfo("the_pacific", RegionData.Shards.values());
+		} else if (op.equals("wa")) {
+			api.getWAInfo(WACouncil.GENERAL_ASSEMBLY, WAData.Shards.values());
+		} else if (op.equals("happenings")) {
+			api.getHappeningInfo();
+		} else if (op.equals("verify")) {
+			api.verifyNation("testlandia", "valid");
+		} else {
+			throw new IllegalArgumentException("Unknown operation: " + op);
+		}
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+	}
+
+	private static String option(Map<String, String> options, String key, String def) {
+		String value = options.get(key);
+		return value != null ? value : def;
+	}
+}
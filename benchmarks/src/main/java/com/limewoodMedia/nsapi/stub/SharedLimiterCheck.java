@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.stub;
+
+import com.limewoodMedia.nsapi.limiter.SharedRateLimiter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that a {@link SharedRateLimiter} holds across processes: it starts several local JVMs
+ * that call {@code tryAcquire} on one limiter file as fast as they can, with no network.
+ * <p>
+ * The budget check runs the processes for less than one window, so together they must acquire
+ * exactly the limit. The lockout check locks a fresh file out before the processes start, so
+ * none of them may acquire anything. The exit status is 1 if a check fails.
+ * <p>
+ * Options are given as {@code key=value}:
+ * <ul>
+ * <li>processes - the number of JVMs (default 4)</li>
+ * <li>limit - calls per window (default 49)</li>
+ * <li>window - the window in seconds (default 10)</li>
+ * </ul>
+ * <pre>
+ * java -cp target/benchmarks.jar com.limewoodMedia.nsapi.stub.SharedLimiterCheck processes=4
+ * </pre>
+ * @author Afforess
+ *
+ */
+public class SharedLimiterCheck {
+	private static final String CHILD = "child";
+	private static final String ACQUIRED = "acquired ";
+	/** Time for the JVMs to start before they all begin */
+	private static final long STARTUP = 3000L;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals(CHILD)) {
+			child(args);
+			return;
+		}
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("Expected key=value: " + arg);
+			}
+			options.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+		int processes = Integer.parseInt(option(options, "processes", "4"));
+		int limit = Integer.parseInt(option(options, "limit", "49"));
+		long window = Long.parseLong(option(options, "window", "10")) * 1000L;
+
+		boolean ok = check("budget", processes, limit, window, false, limit);
+		ok &= check("lockout", processes, limit, window, true, 0);
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs the processes on a fresh limiter file for most of one window
+	 * @return whether they acquired the expected number of calls together
+	 */
+	private static boolean check(String name, int processes, int limit, long window, boolean lockOut, int expected)
+			throws IOException, InterruptedException {
+		File file = File.createTempFile("nsapi-limit", ".dat");
+		file.delete();
+		try {
+			long start = System.currentTimeMillis() + STARTUP;
+			long end = start + window * 3 / 4;
+			if (lockOut) {
+				SharedRateLimiter limiter = new SharedRateLimiter(file);
+				try {
+					limiter.lockOut(end + window);
+				} finally {
+					limiter.close();
+				}
+			}
+			String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+			List<Process> children = new ArrayList<Process>();
+			for (int i = 0; i < processes; i++) {
+				ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+						SharedLimiterCheck.class.getName(), CHILD, file.getPath(), String.valueOf(limit),
+						String.valueOf(window), String.valueOf(start), String.valueOf(end));
+				builder.redirectErrorStream(true);
+				children.add(builder.start());
+			}
+			int total = 0;
+			StringBuilder counts = new StringBuilder();
+			for (Process child : children) {
+				BufferedReader in = new BufferedReader(new InputStreamReader(child.getInputStream(), "UTF-8"));
+				try {
+					String line;
+					while ((line = in.readLine()) != null) {
+						if (line.startsWith(ACQUIRED)) {
+							int acquired = Integer.parseInt(line.substring(ACQUIRED.length()));
+							total += acquired;
+							counts.append(counts.length() == 0 ? "" : "+").append(acquired);
+						} else {
+							System.out.println(line);
+						}
+					}
+				} finally {
+					in.close();
+				}
+				if (child.waitFor() != 0) {
+					System.out.printf("%s: a process exited with %d%n", name, child.exitValue());
+					return false;
+				}
+			}
+			boolean ok = total == expected;
+			System.out.printf("%s: %d processes acquired %d calls (%s), expected %d - %s%n",
+					name, processes, total, counts, expected, ok ? "ok" : "FAILED");
+			return ok;
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Calls tryAcquire from start to end and prints how many calls were acquired
+	 */
+	private static void child(String[] args) throws IOException, InterruptedException {
+		File file = new File(args[1]);
+		int limit = Integer.parseInt(args[2]);
+		long window = Long.parseLong(args[3]);
+		long start = Long.parseLong(args[4]);
+		long end = Long.parseLong(args[5]);
+		SharedRateLimiter limiter = new SharedRateLimiter(file);
+		int acquired = 0;
+		try {
+			long wait = start - System.currentTimeMillis();
+			if (wait > 0) {
+				Thread.sleep(wait);
+			}
+			while (System.currentTimeMillis() < end) {
+				if (limiter.tryAcquire(limit, window)) {
+					acquired++;
+				}
+			}
+		} finally {
+			limiter.close();
+		}
+		System.out.println(ACQUIRED + acquired);
+	}
+
+	private static String option(Map<String, String> options, String key, String def) {
+		String value = options.get(key);
+		return value != null ? value : def;
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.stub;
+
+import com.limewoodMedia.nsapi.benchmarks.Fixtures;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An embeddable stand-in for the NationStates API, for load tests that must not touch the real site.
+ * <p>
+ * Serves the benchmark fixtures (or any registered response) for nation, region, WA and happenings
+ * queries, answers verification and telegram calls, and can add latency, inject 429s and enforce
+ * its own rate limit per User-Agent. Point a {@link com.limewoodMedia.nsapi.NationStates} at
+ * {@link #getApiUrl()} to use it.
+ * @author Afforess
+ *
+ */
+public class StubServer {
+	public static final String PATH = "/cgi-bin/api.cgi";
+
+	/**
+	 * The kinds of request the stub answers
+	 */
+	public static enum Kind {
+		NATION, REGION, WA, HAPPENINGS, WORLD, VERIFY, TELEGRAM
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Map<Kind, byte[]> responses = new EnumMap<Kind, byte[]>(Kind.class);
+	private final Map<String, LinkedList<Long>> windows = new HashMap<String, LinkedList<Long>>();
+	private final Random random = new Random();
+	private volatile long minLatency;
+	private volatile long maxLatency;
+	private volatile double errorRate;
+	private volatile int errorStatus = 429;
+	private volatile int rateLimit;
+	private volatile long rateLimitWindow = 30000L;
+	private volatile String validChecksum = "valid";
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong injectedErrors = new AtomicLong();
+	private final AtomicLong rateLimited429s = new AtomicLong();
+
+	/**
+	 * Creates a stub server on a free local port
+	 * @param threads the number of request threads
+	 * @throws IOException if the server could not be bound
+	 */
+	public StubServer(int threads) throws IOException {
+		this(0, threads);
+	}
+
+	/**
+	 * Creates a stub server
+	 * @param port the local port, or 0 for any free port
+	 * @param threads the number of request threads
+	 * @throws IOException if the server could not be bound
+	 */
+	public StubServer(int port, int threads) throws IOException {
+		responses.put(Kind.NATION, Fixtures.load(Fixtures.NATION));
+		responses.put(Kind.REGION, Fixtures.load(Fixtures.REGION));
+		responses.put(Kind.WA, Fixtures.load(Fixtures.WA));
+		responses.put(Kind.HAPPENINGS, Fixtures.load(Fixtures.HAPPENINGS));
+		responses.put(Kind.WORLD, "<WORLD><NUMNATIONS>200000</NUMNATIONS><NUMREGIONS>20000</NUMREGIONS></WORLD>".getBytes("ISO-8859-1"));
+		responses.put(Kind.TELEGRAM, "queued\n".getBytes("ISO-8859-1"));
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext(PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return the URL to pass to {@link com.limewoodMedia.nsapi.NationStates#setApiUrl(String)}
+	 */
+	public String getApiUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+	}
+
+	/**
+	 * Replaces the response for a kind of request
+	 * @param kind the kind of request
+	 * @param response the response body
+	 */
+	public synchronized void setResponse(Kind kind, byte[] response) {
+		responses.put(kind, response);
+	}
+
+	/**
+	 * Delays every response by a random time between min and max
+	 * @param min the min latency, in milliseconds
+	 * @param max the max latency, in milliseconds
+	 */
+	public void setLatency(long min, long max) {
+		this.minLatency = min;
+		this.maxLatency = Math.max(min, max);
+	}
+
+	/**
+	 * @param errorRate the fraction of requests answered with an error regardless of the rate limit
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Sets the status of the injected errors - default is 429, which locks a client out for 15 minutes
+	 * @param errorStatus the HTTP status, e.g. 503 for errors a client can retry at once
+	 */
+	public void setErrorStatus(int errorStatus) {
+		this.errorStatus = errorStatus;
+	}
+
+	public int getErrorStatus() {
+		return errorStatus;
+	}
+
+	/**
+	 * Enforces a rate limit per User-Agent
+	 * @param rateLimit the max number of requests per window, or 0 for no limit
+	 * @param window the window, in milliseconds
+	 */
+	public void setRateLimit(int rateLimit, long window) {
+		this.rateLimit = rateLimit;
+		this.rateLimitWindow = window;
+	}
+
+	/**
+	 * @param checksum the checksum that verifies successfully
+	 */
+	public void setValidChecksum(String checksum) {
+		this.validChecksum = checksum;
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of errors sent because of the error rate
+	 */
+	public long getInjectedErrors() {
+		return injectedErrors.get();
+	}
+
+	/**
+	 * @return the number of 429s sent because of the rate limit
+	 */
+	public long getRateLimited429s() {
+		return rateLimited429s.get();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+		long latency = minLatency;
+		if (maxLatency > minLatency) {
+			synchronized (random) {
+				latency += (long) (random.nextDouble() * (maxLatency - minLatency));
+			}
+		}
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		if (overLimit(exchange.getRequestHeaders().getFirst("User-Agent"))) {
+			rateLimited429s.incrementAndGet();
+			send(exchange, 429, "Too Many Requests".getBytes("ISO-8859-1"));
+			return;
+		}
+		if (errorRate > 0) {
+			boolean inject;
+			synchronized (random) {
+				inject = random.nextDouble() < errorRate;
+			}
+			if (inject) {
+				injectedErrors.incrementAndGet();
+				int status = errorStatus;
+				send(exchange, status, (status == 429 ? "Too Many Requests" : "Injected Error").getBytes("ISO-8859-1"));
+				return;
+			}
+		}
+		Kind kind = kind(query);
+		if (kind == null) {
+			send(exchange, 400, "Bad Request".getBytes("ISO-8859-1"));
+			return;
+		}
+		byte[] body;
+		if (kind == Kind.VERIFY) {
+			body = (validChecksum.equals(query.get("checksum")) ? "1\n" : "0\n").getBytes("ISO-8859-1");
+		} else {
+			synchronized (this) {
+				body = responses.get(kind);
+			}
+		}
+		send(exchange, 200, body);
+	}
+
+	private static Kind kind(Map<String, String> query) {
+		String action = query.get("a");
+		if ("verify".equals(action)) {
+			return Kind.VERIFY;
+		} else if ("sendTG".equals(action)) {
+			return Kind.TELEGRAM;
+		} else if (query.containsKey("nation")) {
+			return Kind.NATION;
+		} else if (query.containsKey("region")) {
+			return Kind.REGION;
+		} else if (query.containsKey("wa")) {
+			return Kind.WA;
+		}
+		String q = query.get("q");
+		if (q != null && q.startsWith("happenings")) {
+			return Kind.HAPPENINGS;
+		}
+		return q != null ? Kind.WORLD : null;
+	}
+
+	private boolean overLimit(String userAgent) {
+		if (rateLimit <= 0) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		synchronized (windows) {
+			LinkedList<Long> calls = windows.get(userAgent);
+			if (calls == null) {
+				calls = new LinkedList<Long>();
+				windows.put(userAgent, calls);
+			}
+			while (!calls.isEmpty() && calls.getFirst().longValue() + rateLimitWindow < now) {
+				calls.removeFirst();
+			}
+			if (calls.size() >= rateLimit) {
+				return true;
+			}
+			calls.add(Long.valueOf(now));
+			return false;
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq < 0) {
+					params.put(pair, "");
+				} else {
+					params.put(pair.substring(0, eq), pair.substring(eq + 1));
+				}
+			}
+		}
+		return params;
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", status == 200 && body.length > 0 && body[0] == '<'
+				? "text/xml; charset=ISO-8859-1" : "text/plain");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.jdkhttp;
+
+import com.limewoodMedia.nsapi.transport.Request;
+import com.limewoodMedia.nsapi.transport.Response;
+import com.limewoodMedia.nsapi.transport.Transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Transport using the JDK's {@link HttpClient} ({@code java.net.http}). It speaks HTTP/2 when the
+ * server offers it and falls back to HTTP/1.1, and it can also make requests asynchronously with
+ * {@link #getAsync(Request)}. Install it with {@code api.setTransport(new JdkHttpTransport())}.
+ * <p>
+ * The request timeout bounds connecting and the wait for the response headers. The JDK client
+ * has no timeout for reads of the body; a retry policy deadline still bounds them.
+ * <p>
+ * Needs JDK 11+, so it is its own artifact rather than part of the library.
+ * @author Afforess
+ *
+ */
+public class JdkHttpTransport implements Transport {
+	private static final String NO_PROXY = "";
+
+	private final HttpClient.Version version;
+	// The proxy is a setting of the client, so there is one client per proxy
+	private final ConcurrentMap<String, HttpClient> clients = new ConcurrentHashMap<String, HttpClient>();
+
+	/**
+	 * Creates a transport that prefers HTTP/2
+	 */
+	public JdkHttpTransport() {
+		this(HttpClient.Version.HTTP_2);
+	}
+
+	/**
+	 * @param version the preferred HTTP version
+	 */
+	public JdkHttpTransport(HttpClient.Version version) {
+		this.version = version;
+	}
+
+	@Override
+	public Response get(Request request) throws IOException {
+		HttpResponse<InputStream> response;
+		try {
+			response = client(request).send(build(request), HttpResponse.BodyHandlers.ofInputStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for " + request);
+		}
+		return new Response(response.statusCode(), response.body());
+	}
+
+	/**
+	 * Makes a GET request without blocking
+	 * @param request the request
+	 * @return the response, whose body the caller closes
+	 */
+	public CompletableFuture<Response> getAsync(Request request) {
+		return client(request).sendAsync(build(request), HttpResponse.BodyHandlers.ofInputStream())
+				.thenApply(response -> new Response(response.statusCode(), response.body()));
+	}
+
+	private HttpRequest build(Request request) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.url))
+				.GET()
+				.header("User-Agent", request.userAgent);
+		if (request.timeout > 0) {
+			// 0 means no timeout, as for the other transports
+			builder.timeout(Duration.ofMillis(request.timeout));
+		}
+		return builder.build();
+	}
+
+	private HttpClient client(Request request) {
+		String key = request.proxyHost != null ? request.proxyHost + ":" + request.proxyPort : NO_PROXY;
+		HttpClient client = clients.get(key);
+		if (client == null) {
+			HttpClient.Builder builder = HttpClient.newBuilder()
+					.version(version)
+					.followRedirects(HttpClient.Redirect.NORMAL);
+			if (request.proxyHost != null) {
+				builder.proxy(ProxySelector.of(new InetSocketAddress(request.proxyHost, request.proxyPort)));
+			}
+			HttpClient created = builder.build();
+			client = clients.putIfAbsent(key, created);
+			if (client == null) {
+				client = created;
+			}
+		}
+		return client;
+	}
+}
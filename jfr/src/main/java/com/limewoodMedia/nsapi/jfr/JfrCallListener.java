@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.jfr;
+
+import com.limewoodMedia.nsapi.metrics.CallEvent;
+import com.limewoodMedia.nsapi.metrics.CallTracer;
+import com.limewoodMedia.nsapi.metrics.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits Java Flight Recorder events for API calls. Install it with
+ * {@code api.getMetrics().setListener(new JfrCallListener())}.
+ * <p>
+ * Every call is a {@value #CALL_EVENT} event that begins when the call starts, with the phases
+ * of each attempt as nested {@value #RATE_LIMIT_EVENT}, {@value #REQUEST_EVENT} and
+ * {@value #PARSE_EVENT} events, so their durations show up in the recording. All events are
+ * disabled unless a recording enables them.
+ * <p>
+ * Needs a JDK with {@code jdk.jfr} (11+, or 8u262+), so it is its own artifact rather than
+ * part of the library.
+ * @author Afforess
+ *
+ */
+public class JfrCallListener implements CallTracer {
+	public static final String CALL_EVENT = "com.limewoodMedia.nsapi.ApiCall";
+	public static final String RATE_LIMIT_EVENT = "com.limewoodMedia.nsapi.RateLimit";
+	public static final String REQUEST_EVENT = "com.limewoodMedia.nsapi.Request";
+	public static final String PARSE_EVENT = "com.limewoodMedia.nsapi.Parse";
+
+	/**
+	 * The names of all events, e.g. to enable them in a recording
+	 */
+	public static final String[] EVENT_NAMES = { CALL_EVENT, RATE_LIMIT_EVENT, REQUEST_EVENT, PARSE_EVENT };
+
+	@Name(CALL_EVENT)
+	@Label("API Call")
+	@Category("NationStates API")
+	@StackTrace(false)
+	static class ApiCallEvent extends Event {
+		@Label("Endpoint")
+		String endpoint;
+		@Label("Shards")
+		String shards;
+		@Label("URL Template")
+		String urlTemplate;
+		@Label("Status")
+		int status;
+		@Label("Bytes Read")
+		@DataAmount
+		long bytesRead;
+		@Label("Retries")
+		int retries;
+		@Label("Rate Limited")
+		boolean rateLimited;
+		@Label("Rate Limit Wait")
+		@Timespan
+		long rateLimitWait;
+		@Label("Queue Time")
+		@Timespan
+		long queueTime;
+		@Label("Network Time")
+		@Timespan
+		long networkTime;
+		@Label("Parse Time")
+		@Timespan
+		long parseTime;
+		@Label("Failure")
+		String failure;
+	}
+
+	/**
+	 * One phase of an attempt
+	 */
+	abstract static class PhaseEvent extends Event {
+		@Label("Endpoint")
+		String endpoint;
+	}
+
+	@Name(RATE_LIMIT_EVENT)
+	@Label("API Rate Limit")
+	@Category("NationStates API")
+	@StackTrace(false)
+	static class RateLimitEvent extends PhaseEvent {
+	}
+
+	@Name(REQUEST_EVENT)
+	@Label("API Request")
+	@Category("NationStates API")
+	@StackTrace(false)
+	static class RequestEvent extends PhaseEvent {
+	}
+
+	@Name(PARSE_EVENT)
+	@Label("API Response Parse")
+	@Category("NationStates API")
+	@StackTrace(false)
+	static class ParseEvent extends PhaseEvent {
+	}
+
+	/**
+	 * The events in progress on a thread
+	 */
+	private static final class Current {
+		String endpoint;
+		ApiCallEvent call;
+		PhaseEvent phase;
+	}
+
+	private final ThreadLocal<Current> current = new ThreadLocal<Current>() {
+		@Override
+		protected Current initialValue() {
+			return new Current();
+		}
+	};
+
+	@Override
+	public void callStarted(Metrics.Endpoint endpoint) {
+		Current c = current.get();
+		c.endpoint = endpoint.name();
+		c.phase = null;
+		ApiCallEvent event = new ApiCallEvent();
+		if (event.isEnabled()) {
+			event.begin();
+			c.call = event;
+		} else {
+			c.call = null;
+		}
+	}
+
+	@Override
+	public void phaseStarted(Phase phase) {
+		Current c = current.get();
+		PhaseEvent event;
+		switch (phase) {
+		case RATE_LIMIT:
+			event = new RateLimitEvent();
+			break;
+		case REQUEST:
+			event = new RequestEvent();
+			break;
+		default:
+			event = new ParseEvent();
+			break;
+		}
+		if (event.isEnabled()) {
+			event.endpoint = c.endpoint;
+			event.begin();
+			c.phase = event;
+		} else {
+			c.phase = null;
+		}
+	}
+
+	@Override
+	public void phaseEnded(Phase phase) {
+		Current c = current.get();
+		PhaseEvent event = c.phase;
+		c.phase = null;
+		if (event != null) {
+			event.commit();
+		}
+	}
+
+	@Override
+	public void callEnded(CallEvent call) {
+		Current c = current.get();
+		ApiCallEvent event = c.call;
+		c.call = null;
+		if (event == null || !event.shouldCommit()) {
+			return;
+		}
+		event.endpoint = call.endpoint.name();
+		event.shards = call.shards;
+		event.urlTemplate = call.urlTemplate;
+		event.status = call.status;
+		event.bytesRead = call.bytesRead;
+		event.retries = call.retries;
+		event.rateLimited = call.rateLimited;
+		event.rateLimitWait = call.rateLimitWait;
+		event.queueTime = call.queueTime;
+		event.networkTime = call.networkTime;
+		event.parseTime = call.parseTime;
+		event.failure = call.failure != null ? call.failure.getClass().getName() : null;
+		event.commit();
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+
+/**
+ * Fails reads of a response body once the deadline of the call has passed
+ * @author Afforess
+ *
+ */
+class DeadlineInputStream extends FilterInputStream {
+	private final long deadline;
+
+	/**
+	 * @param in the body
+	 * @param deadline when the call must end (System.currentTimeMillis())
+	 */
+	DeadlineInputStream(InputStream in, long deadline) {
+		super(in);
+		this.deadline = deadline;
+	}
+
+	private void check() throws IOException {
+		if (System.currentTimeMillis() >= deadline) {
+			throw new SocketTimeoutException("Call deadline exceeded");
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		check();
+		return super.read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		check();
+		return super.read(b, off, len);
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		check();
+		return super.skip(n);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
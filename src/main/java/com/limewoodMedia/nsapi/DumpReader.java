@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi;
+
+import com.limewoodMedia.nsapi.holders.NationData;
+import com.limewoodMedia.nsapi.holders.RegionData;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Reads the daily NationStates data dumps (nations.xml.gz and regions.xml.gz) from disk.
+ * Records are parsed one at a time with the same tag handlers as the API calls,
+ * so a whole dump can be processed without holding it in memory and without any network access.
+ * @author Afforess
+ *
+ */
+public class DumpReader {
+	public static final String NATIONS_DUMP = "nations.xml.gz";
+	public static final String REGIONS_DUMP = "regions.xml.gz";
+	static final String NATION_TAG = "nation";
+	static final String REGION_TAG = "region";
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Callback receiving the records of a dump
+	 * @param <T> the record type
+	 */
+	public static interface Callback<T> {
+		/**
+		 * Called once for every record in the dump, in file order
+		 * @param record the parsed record
+		 */
+		public void onRecord(T record);
+	}
+
+	private final NationStates api;
+
+	/**
+	 * Creates a dump reader with default parser settings
+	 */
+	public DumpReader() {
+		this(new NationStates());
+	}
+
+	/**
+	 * Creates a dump reader using the verbose and relaxed settings of the given API instance
+	 * @param api the API instance whose parser settings to use
+	 */
+	public DumpReader(NationStates api) {
+		this.api = api;
+	}
+
+	/**
+	 * Opens a nations dump for iteration
+	 * The caller must close the returned dump if it is not iterated to the end
+	 * @param file the dump file (gzipped if the name ends with .gz)
+	 * @return an iterator over the nations in the dump
+	 * @throws IOException if the file could not be opened
+	 */
+	public Dump<NationData> openNations(File file) throws IOException {
+		return nations(openStream(file), null);
+	}
+
+	/**
+	 * Opens a nations dump from a stream of XML
+	 * @param stream the XML stream
+	 * @param encoding the encoding of the stream, or null to detect it from the XML declaration
+	 * @return an iterator over the nations in the stream
+	 * @throws IOException if the stream could not be read
+	 */
+	Dump<NationData> nations(InputStream stream, String encoding) throws IOException {
+		return new Dump<NationData>(stream, encoding, NATION_TAG) {
+			@Override
+			protected NationData parse(XmlPullParser xpp) throws XmlPullParserException, IOException {
+				return api.parseNation(xpp, null, true);
+			}
+		};
+	}
+
+	/**
+	 * Opens a regions dump for iteration
+	 * The caller must close the returned dump if it is not iterated to the end
+	 * @param file the dump file (gzipped if the name ends with .gz)
+	 * @return an iterator over the regions in the dump
+	 * @throws IOException if the file could not be opened
+	 */
+	public Dump<RegionData> openRegions(File file) throws IOException {
+		return regions(openStream(file), null);
+	}
+
+	/**
+	 * Opens a regions dump from a stream of XML
+	 * @param stream the XML stream
+	 * @param encoding the encoding of the stream, or null to detect it from the XML declaration
+	 * @return an iterator over the regions in the stream
+	 * @throws IOException if the stream could not be read
+	 */
+	Dump<RegionData> regions(InputStream stream, String encoding) throws IOException {
+		return new Dump<RegionData>(stream, encoding, REGION_TAG) {
+			@Override
+			protected RegionData parse(XmlPullParser xpp) throws XmlPullParserException, IOException {
+				return api.parseRegion(xpp, null, true);
+			}
+		};
+	}
+
+	/**
+	 * Reads every nation in a nations dump
+	 * @param file the dump file (gzipped if the name ends with .gz)
+	 * @param callback to receive the nations
+	 * @return the number of nations read
+	 * @throws IOException if the file could not be read
+	 */
+	public int readNations(File file, Callback<NationData> callback) throws IOException {
+		return read(openNations(file), callback);
+	}
+
+	/**
+	 * Reads every region in a regions dump
+	 * @param file the dump file (gzipped if the name ends with .gz)
+	 * @param callback to receive the regions
+	 * @return the number of regions read
+	 * @throws IOException if the file could not be read
+	 */
+	public int readRegions(File file, Callback<RegionData> callback) throws IOException {
+		return read(openRegions(file), callback);
+	}
+
+	private static <T> int read(Dump<T> dump, Callback<T> callback) throws IOException {
+		try {
+			while (dump.hasNext()) {
+				callback.onRecord(dump.next());
+			}
+			return dump.getCount();
+		} finally {
+			dump.close();
+		}
+	}
+
+	/**
+	 * Opens a dump file, decompressing it if the name ends with .gz
+	 * @param file the dump file
+	 * @return a buffered stream of the dump's XML
+	 * @throws IOException if the file could not be opened
+	 */
+	static InputStream openStream(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			if (file.getName().endsWith(".gz")) {
+				return new GZIPInputStream(in, BUFFER_SIZE);
+			}
+			return new BufferedInputStream(in, BUFFER_SIZE);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * An open dump, iterating over its records in file order
+	 * @param <T> the record type
+	 */
+	public abstract class Dump<T> implements Iterator<T>, Closeable {
+		private final InputStream stream;
+		private final String recordTag;
+		private final XmlPullParser xpp;
+		private T next;
+		private boolean done;
+		private int count;
+
+		Dump(InputStream stream, String encoding, String recordTag) throws IOException {
+			this.stream = stream;
+			this.recordTag = recordTag;
+			try {
+				KXmlParser parser = new KXmlParser();
+				parser.setInput(stream, encoding);
+				parser.setFeature("http://xmlpull.org/v1/doc/features.html#relaxed", api.isRelaxed());
+				this.xpp = parser;
+			} catch (XmlPullParserException e) {
+				stream.close();
+				throw new RuntimeException("Failed to parse XML", e);
+			}
+		}
+
+		/**
+		 * Parses one record, the parser being positioned on its START_TAG
+		 */
+		protected abstract T parse(XmlPullParser xpp) throws XmlPullParserException, IOException;
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && !done) {
+				next = advance();
+			}
+			return next != null;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T record = next;
+			next = null;
+			return record;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * @return the number of records returned so far
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			done = true;
+			stream.close();
+		}
+
+		private T advance() {
+			try {
+				while (xpp.next() != XmlPullParser.END_DOCUMENT) {
+					if (xpp.getEventType() == XmlPullParser.START_TAG && xpp.getDepth() == 2
+							&& xpp.getName().equalsIgnoreCase(recordTag)) {
+						count++;
+						return parse(xpp);
+					}
+				}
+				close();
+				return null;
+			} catch (XmlPullParserException e) {
+				throw new RuntimeException("Failed to parse XML", e);
+			} catch (IOException e) {
+				throw new RuntimeException("IOException parsing XML", e);
+			}
+		}
+	}
+}
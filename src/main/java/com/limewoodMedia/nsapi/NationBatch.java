@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi;
+
+import com.limewoodMedia.nsapi.exceptions.RateLimitReachedException;
+import com.limewoodMedia.nsapi.holders.NationData;
+import com.limewoodMedia.nsapi.log.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fetches many nations with a few threads, under the rate limit of the API.
+ * <p>
+ * Nations are passed to the listener as they arrive. A nation that cannot be fetched (e.g. an
+ * {@link com.limewoodMedia.nsapi.exceptions.UnknownNationException}) is reported on its own and
+ * the batch goes on. Every fetch takes a permit from the API's {@link RequestScheduler} (the
+ * background class by default), so the threads block there while the rate limit is used up.
+ * The listener is called from the fetching threads, but never from two at once; an exception
+ * thrown by the listener is logged and the batch goes on.
+ * @author Afforess
+ *
+ */
+public class NationBatch {
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	/**
+	 * Receives the results of a batch. Runtime exceptions thrown by these methods are logged and
+	 * do not stop the batch.
+	 */
+	public static interface Listener {
+		/**
+		 * Called for every nation fetched
+		 * @param name the requested name
+		 * @param nation the nation
+		 */
+		public void onNation(String name, NationData nation);
+
+		/**
+		 * Called for every nation that could not be fetched
+		 * @param name the requested name
+		 * @param e the error
+		 */
+		public void onError(String name, RuntimeException e);
+
+		/**
+		 * Called after every nation, fetched or not
+		 * @param done the number of names done
+		 * @param total the number of names in the batch
+		 */
+		public void onProgress(int done, int total);
+	}
+
+	private final NationStates api;
+	private final List<String> names;
+	private final Listener listener;
+	private final NationData.Shards[] shards;
+	private final Set<Thread> waiting = new HashSet<Thread>();
+	private final Log log = new Log(NationBatch.class.getName());
+	private volatile RequestScheduler.RequestClass requestClass;
+	private int concurrency = DEFAULT_CONCURRENCY;
+	private int next;
+	private int done;
+	private int failed;
+	private int running;
+	private boolean started;
+	private volatile boolean cancelled;
+
+	/**
+	 * Creates a batch; duplicate names are fetched once
+	 * @param api the API to fetch with
+	 * @param names the nations to fetch
+	 * @param listener to receive the results
+	 * @param shards the shards to request
+	 */
+	public NationBatch(NationStates api, Collection<String> names, Listener listener, NationData.Shards...shards) {
+		this.api = api;
+		this.names = new ArrayList<String>(new LinkedHashSet<String>(names));
+		this.listener = listener;
+		this.shards = shards;
+		this.requestClass = api.getScheduler().getBackgroundClass();
+	}
+
+	/**
+	 * Sets the class fetches are scheduled in - default is the scheduler's background class
+	 * @param requestClass a class of the API object's scheduler
+	 */
+	public void setRequestClass(RequestScheduler.RequestClass requestClass) {
+		this.requestClass = requestClass;
+	}
+
+	public RequestScheduler.RequestClass getRequestClass() {
+		return requestClass;
+	}
+
+	/**
+	 * @param concurrency the number of nations fetched at the same time - default 4
+	 */
+	public synchronized void setConcurrency(int concurrency) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be at least 1");
+		}
+		this.concurrency = concurrency;
+	}
+
+	public synchronized int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Starts fetching on background threads
+	 * @return this batch
+	 */
+	public synchronized NationBatch start() {
+		if (started) {
+			return this;
+		}
+		started = true;
+		running = Math.min(concurrency, names.size());
+		for (int i = 0; i < running; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						String name;
+						while ((name = take()) != null) {
+							fetch(name);
+						}
+					} catch (InterruptedException e) {
+						// Cancelled
+					} finally {
+						finished();
+					}
+				}
+			}, "NationBatch-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return this;
+	}
+
+	private synchronized String take() {
+		return cancelled || next == names.size() ? null : names.get(next++);
+	}
+
+	private synchronized void finished() {
+		running--;
+		notifyAll();
+	}
+
+	private void acquire(RequestScheduler scheduler) throws InterruptedException {
+		Thread thread = Thread.currentThread();
+		synchronized (this) {
+			if (cancelled) {
+				throw new InterruptedException();
+			}
+			waiting.add(thread);
+		}
+		try {
+			scheduler.acquire(requestClass);
+		} finally {
+			synchronized (this) {
+				waiting.remove(thread);
+				// A cancel that came after the permit must not interrupt the fetch
+				Thread.interrupted();
+			}
+		}
+	}
+
+	private void fetch(String name) throws InterruptedException {
+		RequestScheduler scheduler = api.getScheduler();
+		NationData nation = null;
+		RuntimeException error = null;
+		while (!cancelled) {
+			acquire(scheduler);
+			try {
+				nation = api.getNationInfo(name, shards);
+			} catch (RateLimitReachedException e) {
+				// A shared limiter or a lockout took the call, the next permit waits for it
+				continue;
+			} catch (RuntimeException e) {
+				error = e;
+			} finally {
+				scheduler.release();
+			}
+			break;
+		}
+		if (nation == null && error == null) {
+			return;
+		}
+		synchronized (listener) {
+			int progress;
+			synchronized (this) {
+				progress = ++done;
+				if (error != null) {
+					failed++;
+				}
+			}
+			try {
+				if (error != null) {
+					listener.onError(name, error);
+				} else {
+					listener.onNation(name, nation);
+				}
+				listener.onProgress(progress, names.size());
+			} catch (RuntimeException e) {
+				log.warn("Batch listener failed for " + name, e);
+			}
+		}
+	}
+
+	/**
+	 * Stops the batch. Nations being fetched are still reported, the rest are skipped; threads
+	 * waiting for the scheduler are woken up.
+	 */
+	public void cancel() {
+		synchronized (this) {
+			cancelled = true;
+			for (Thread thread : waiting) {
+				thread.interrupt();
+			}
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Waits for the batch to finish (or stop after being cancelled)
+	 * @param timeout the max time to wait, in milliseconds (0 to wait forever)
+	 * @return true if the batch finished
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized boolean await(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (!isDone()) {
+			long left = timeout == 0 ? 0 : end - System.currentTimeMillis();
+			if (timeout != 0 && left <= 0) {
+				return false;
+			}
+			wait(left);
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the batch was started and all of its threads have stopped
+	 */
+	public synchronized boolean isDone() {
+		return started && running == 0;
+	}
+
+	/**
+	 * @return the number of names in the batch
+	 */
+	public int getTotal() {
+		return names.size();
+	}
+
+	/**
+	 * @return the number of names done, fetched or not
+	 */
+	public synchronized int getDone() {
+		return done;
+	}
+
+	/**
+	 * @return the number of names that could not be fetched
+	 */
+	public synchronized int getFailed() {
+		return failed;
+	}
+}
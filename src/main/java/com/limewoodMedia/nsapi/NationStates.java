@@ -49,28 +49,29 @@ import com.limewoodMedia.nsapi.holders.WAMemberLogHappening;
 import com.limewoodMedia.nsapi.holders.WAResolution;
 import com.limewoodMedia.nsapi.holders.WAVotes;
 import com.limewoodMedia.nsapi.holders.WorldData;
+import com.limewoodMedia.nsapi.limiter.LocalRateLimiter;
+import com.limewoodMedia.nsapi.limiter.RateLimiter;
+import com.limewoodMedia.nsapi.log.Log;
+import com.limewoodMedia.nsapi.metrics.Gauge;
+import com.limewoodMedia.nsapi.metrics.Metrics;
+import com.limewoodMedia.nsapi.transport.HttpClientTransport;
+import com.limewoodMedia.nsapi.transport.Request;
+import com.limewoodMedia.nsapi.transport.Response;
+import com.limewoodMedia.nsapi.transport.ServerErrorException;
+import com.limewoodMedia.nsapi.transport.Transport;
+import com.limewoodMedia.nsapi.util.ListTokenizer;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import org.apache.http.HttpHost;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.params.ClientPNames;
-import org.apache.http.conn.params.ConnRoutePNames;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.CoreProtocolPNames;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
 import org.kxml2.io.KXmlParser;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -84,22 +85,36 @@ public class NationStates {
 	public static final String API = "http://www.nationstates.net/cgi-bin/api.cgi";
 	public static final String API_USER_AGENT = "Java NSAPI library by Laevendell (code.google.com/p/ns-api/); ";
 	public static final int DEFAULT_RATE_LIMIT = 49; // One lower to be on the safe side
+	public static final long RATE_LIMIT_WINDOW = 30000L;
+	private static final int RESPONSE_BUFFER_SIZE = 64;
 
 	public NationStates() {
-		
+		setMetrics(new Metrics());
 	}
 
-	private final LinkedList<Long> calls = new LinkedList<Long>();
+	/**
+	 * One attempt at a call
+	 */
+	private static interface Fetch<T> {
+		public T fetch();
+	}
+
+	private RateLimiter limiter = new LocalRateLimiter();
+	private RetryPolicy retryPolicy = RetryPolicy.NONE;
+	private final ThreadLocal<Long> deadlines = new ThreadLocal<Long>();
+	private Transport transport = new HttpClientTransport();
 	private int rateLimit = DEFAULT_RATE_LIMIT;
 	private boolean useRateLimit = true;
 	private String userAgent = null;
+	private String apiUrl = API;
 	private int version = -1;
-	private boolean verbose = false;
+	private final Log log = new Log(NationStates.class.getName());
 	private boolean relaxed = false;
-	private long hardRateLimit = 0;
 	private String proxyIP;
 	private int proxyPort;
 	private long timeout = 15000;
+	private Metrics metrics;
+	private final RequestScheduler scheduler = new RequestScheduler(this);
 
 	/**
 	 * Sets the rate limit - default is 49 (per 30 seconds)
@@ -137,16 +152,23 @@ public class NationStates {
 	 * Verbose mode does extensive debug logging
 	 * @return verbose
 	 */
-	public synchronized boolean isVerbose() {
-		return verbose;
+	public boolean isVerbose() {
+		return log.isEnabled(Log.Level.TRACE);
 	}
 
 	/**
-	 * Sets the verbose mode
+	 * Sets the verbose mode (the TRACE log level, or INFO when turned off)
 	 * @param verbose
 	 */
-	public synchronized void setVerbose(boolean verbose) {
-		this.verbose = verbose;
+	public void setVerbose(boolean verbose) {
+		log.setLevel(verbose ? Log.Level.TRACE : Log.Level.INFO);
+	}
+
+	/**
+	 * @return the log, to change its level, sample rate or appender
+	 */
+	public Log getLog() {
+		return log;
 	}
 
 	/**
@@ -165,6 +187,43 @@ public class NationStates {
 		return userAgent;
 	}
 
+	/**
+	 * Sets the URL of the API - default is {@link #API}
+	 * (e.g. to point the library at a local stub server)
+	 * @param apiUrl the URL of api.cgi
+	 */
+	public synchronized void setApiUrl(String apiUrl) {
+		this.apiUrl = apiUrl;
+	}
+
+	/**
+	 * @return the URL of the API
+	 */
+	public synchronized String getApiUrl() {
+		return apiUrl;
+	}
+
+	/**
+	 * Sets how HTTP requests are made - default is an {@link HttpClientTransport}. To fail fast
+	 * while the API is down, wrap the current transport in a circuit breaker:
+	 * <pre>
+	 * CircuitBreakerTransport breaker = new CircuitBreakerTransport(api.getTransport());
+	 * breaker.addGauges(api.getMetrics(), "circuit");
+	 * api.setTransport(breaker);
+	 * </pre>
+	 * @param transport the transport
+	 */
+	public synchronized void setTransport(Transport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * @return the transport
+	 */
+	public synchronized Transport getTransport() {
+		return transport;
+	}
+
 	/**
 	 * Sets version of the NationStates API to use
 	 * @param version the version of the NS API to use
@@ -228,37 +287,103 @@ public class NationStates {
 	 * @return true if it's OK to make a call to the NS API
 	 * @throws IllegalArgumentException if no User-Agent was set
 	 */
-	protected synchronized boolean makeCall() throws IllegalArgumentException {
-		if (this.userAgent == null) {
-			throw new IllegalArgumentException("No User-Agent set! Use setUserAgent(String).");
-		}
-		if (hardRateLimit > System.currentTimeMillis()) {
-			return false;
-		}
-		Iterator<Long> i = this.calls.iterator();
-		while(i.hasNext()) {
-			if (i.next() + 30000L < System.currentTimeMillis()) {
-				i.remove();
+	protected boolean makeCall() throws IllegalArgumentException {
+		long start = System.nanoTime();
+		Metrics.Call call;
+		synchronized (this) {
+			if (this.userAgent == null) {
+				throw new IllegalArgumentException("No User-Agent set! Use setUserAgent(String).");
 			}
+			call = metrics.current();
 		}
-		if (this.calls.size() < rateLimit) {
-			this.calls.add(System.currentTimeMillis());
-			return true;
+		if (call != null) {
+			call.rateLimitStarted();
 		}
-		return false;
+		// Outside our monitor: the scheduler locks itself first and then this object
+		boolean acquired = scheduler.admit();
+		if (call != null) {
+			call.rateLimitChecked(System.nanoTime() - start, acquired);
+		}
+		return acquired;
 	}
 
 	public synchronized int getRateLimitRemaining() {
-		if (hardRateLimit > System.currentTimeMillis()) {
-			return 0;
-		}
-		Iterator<Long> i = this.calls.iterator();
-		while(i.hasNext()) {
-			if (i.next() + 30000L < System.currentTimeMillis()) {
-				i.remove();
+		return limiter.getRemaining(rateLimit, RATE_LIMIT_WINDOW);
+	}
+
+	/**
+	 * Charges one call to the rate limiter
+	 * @return true if the limiter had room
+	 */
+	synchronized boolean acquireCall() {
+		return limiter.tryAcquire(rateLimit, RATE_LIMIT_WINDOW);
+	}
+
+	/**
+	 * @param headroom the number of calls that must stay free
+	 * @return how long until more than that many calls are free, in milliseconds
+	 */
+	synchronized long getRateLimitWait(int headroom) {
+		return limiter.getWaitTime(rateLimit - headroom, RATE_LIMIT_WINDOW);
+	}
+
+	/**
+	 * @return the scheduler all calls of this instance go through
+	 */
+	public RequestScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Sets where calls are counted - by default each instance counts its own calls.
+	 * Use a {@link com.limewoodMedia.nsapi.limiter.SharedRateLimiter} to share one budget between processes.
+	 * @param limiter the rate limiter
+	 */
+	public synchronized void setRateLimiter(RateLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	/**
+	 * @return the rate limiter
+	 */
+	public synchronized RateLimiter getRateLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Sets when failed shard queries are retried - default is {@link RetryPolicy#NONE}
+	 * @param retryPolicy the retry policy
+	 */
+	public synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * @return the retry policy
+	 */
+	public synchronized RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Sets the metrics registry calls are recorded in, and adds a "rateLimitRemaining" gauge to it
+	 * @param metrics the metrics
+	 */
+	public synchronized void setMetrics(Metrics metrics) {
+		metrics.addGauge("rateLimitRemaining", new Gauge() {
+			@Override
+			public double getValue() {
+				return getRateLimitRemaining();
 			}
-		}
-		return rateLimit - this.calls.size();
+		});
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the metrics of the calls made
+	 */
+	public synchronized Metrics getMetrics() {
+		return metrics;
 	}
 
 	/**
@@ -280,26 +405,41 @@ public class NationStates {
 	 * @param site-specific token (optional, null if none)
 	 * @return true if verified
 	 */
-	public boolean verifyNation(String nation, String checksum, String token) {
-		try {
-			if (!makeCall()) {
-				throw new RateLimitReachedException();
+	public boolean verifyNation(final String nation, final String checksum, final String token) {
+		return call(new Fetch<Boolean>() {
+			@Override
+			public Boolean fetch() {
+				try {
+					if (!makeCall()) {
+						throw new RateLimitReachedException();
+					}
+					InputStream stream = doRequest(getApiUrl() + "?a=verify&nation=" + nation.toLowerCase().replaceAll(" ", "_") + "&checksum=" + checksum + (token != null ? "&token=" + token : ""));
+					return "1".equals(convertStreamToString(stream).trim());
+				} catch (IOException e) {
+					throw new RuntimeException("IOException parsing authentication result", e);
+				}
 			}
-			InputStream stream = doRequest(API + "?a=verify&nation=" + nation.toLowerCase().replaceAll(" ", "_") + "&checksum=" + checksum + (token != null ? "&token=" + token : ""));
-			return "1".equals(convertStreamToString(stream).trim());
-		} catch (IOException e) {
-			throw new RuntimeException("IOException parsing authentication result", e);
-		}
+		}, true, Metrics.Endpoint.VERIFY);
 	}
 
-	private static String convertStreamToString(java.io.InputStream is) {
-	    java.util.Scanner s = new java.util.Scanner(is);
-	    s.useDelimiter("\\A");
-	    try {
-	    	return s.hasNext() ? s.next() : "";
-	    } finally {
-	    	s.close();
-	    }
+	/**
+	 * Reads a short plain text response (verification and telegram results) and closes the stream
+	 */
+	private static String convertStreamToString(InputStream is) throws IOException {
+		byte[] buf = new byte[RESPONSE_BUFFER_SIZE];
+		int length = 0;
+		try {
+			int read;
+			while ((read = is.read(buf, length, buf.length - length)) != -1) {
+				length += read;
+				if (length == buf.length) {
+					buf = Arrays.copyOf(buf, buf.length * 2);
+				}
+			}
+		} finally {
+			is.close();
+		}
+		return new String(buf, 0, length, "UTF-8");
 	}
 
 	/**
@@ -311,16 +451,26 @@ public class NationStates {
 	 * 
 	 * @return telegram api result
 	 */
-	public String sendTelegram(String clientKey, String secretKey, String tgid, String nation) {
-		if (!makeCall()) {
-			throw new RateLimitReachedException();
-		}
+	public String sendTelegram(final String clientKey, final String secretKey, final String tgid, final String nation) {
+		return call(new Fetch<String>() {
+			@Override
+			public String fetch() {
+				if (!makeCall()) {
+					throw new RateLimitReachedException();
+				}
+				return requestTelegram(clientKey, secretKey, tgid, nation);
+			}
+		}, false, Metrics.Endpoint.TELEGRAM);
+	}
+
+	private String requestTelegram(String clientKey, String secretKey, String tgid, String nation) {
 		try {
-			return convertStreamToString(doRequest("http://www.nationstates.net/cgi-bin/api.cgi?a=sendTG&client=" + clientKey + "&tgid=" + tgid + "&key=" + secretKey + "&to=" + nation));
+			return convertStreamToString(doRequest(getApiUrl() + "?a=sendTG&client=" + clientKey + "&tgid=" + tgid + "&key=" + secretKey + "&to=" + nation));
 		}  catch (IOException e) {
 			throw new RuntimeException("IOException sending telegram", e);
 		}
 	}
+
 	/**
 	 * Gets the happening information from the world
 	 * 
@@ -363,16 +513,35 @@ public class NationStates {
 	 * @param filters to filter the happening information gathered
 	 * @return happening data
 	 */
-	public HappeningData getHappeningInfo(ViewType view, int limit, int sinceId, HappeningData.Filter ...filters) {
-		if (!makeCall()) {
-			throw new RateLimitReachedException();
-		}
-		NSData data = null;
+	public HappeningData getHappeningInfo(final ViewType view, final int limit, final int sinceId, final HappeningData.Filter ...filters) {
+		return call(new Fetch<HappeningData>() {
+			@Override
+			public HappeningData fetch() {
+				if (!makeCall()) {
+					throw new RateLimitReachedException();
+				}
+				try {
+					String viewFragment = (view != null ? view.toString() + ";" : "");
+					String limitFragment = (limit != -1 ? "limit=" + limit + ";" : "");
+					String sinceFragment = (sinceId != -1 ? "sinceid=" + sinceId + ";" : "");
+					String filterFragment = (filters.length > 0 ? "filter=" + buildShardString(filters) : "");
+					return getHappeningInfo(getInfo(doRequest(getApiUrl() + "?q=happenings;" + viewFragment + limitFragment + sinceFragment + filterFragment)));
+				} catch (XmlPullParserException e) {
+					throw new RuntimeException("Failed to parse XML", e);
+				} catch (IOException e) {
+					throw new RuntimeException("IOException parsing XML", e);
+				}
+			}
+		}, true, Metrics.Endpoint.HAPPENINGS, filters);
+	}
+
+	/**
+	 * Parses world happenings
+	 * @param data the NSData to parse
+	 * @return happening data
+	 */
+	public HappeningData getHappeningInfo(NSData data) {
 		try {
-			String viewFragment = (view != null ? view.toString() + ";" : "");
-			String limitFragment = (limit != -1 ? "limit=" + limit + ";" : "");
-			String sinceFragment = (sinceId != -1 ? "sinceid=" + sinceId + ";" : "");
-			data = getInfo(doRequest(API + "?q=happenings;" + viewFragment + limitFragment + sinceFragment + buildShardString(filters)));
 			XmlPullParser xpp = null;
 			xpp = data.xpp;
 			xpp.setFeature("http://xmlpull.org/v1/doc/features.html#relaxed", relaxed);
@@ -384,9 +553,7 @@ public class NationStates {
 				switch (xpp.getEventType()) {
 				case XmlPullParser.START_TAG:
 					tagName = xpp.getName().toLowerCase();
-					if (verbose) {
-						System.out.println("Parsing happenings Tag: " + tagName);
-					}
+					log.trace("Parsing happenings Tag: {}", tagName);
 					if (tagName.equals("happenings")) {
 						events.happenings = parseWorldHappenings(xpp).toArray(new EventHappening[0]);
 					}
@@ -449,16 +616,32 @@ public class NationStates {
 	* @return a WorldData object with world info
 	* @throws RateLimitReachedException if the rate limit was reached (but not exceeded)
 	*/
-	public WorldData getWorldInfo(WorldData.Shards...shards) {
-		if (!makeCall()) {
-			throw new RateLimitReachedException();
-		}
-		NSData data = null;
-		try {
-			data = getInfo("?", shards);
-			if (verbose) {
-				System.out.println("Parsing World Info");
+	public WorldData getWorldInfo(final WorldData.Shards...shards) {
+		return call(new Fetch<WorldData>() {
+			@Override
+			public WorldData fetch() {
+				if (!makeCall()) {
+					throw new RateLimitReachedException();
+				}
+				try {
+					return getWorldInfo(getInfo("?", shards));
+				} catch (XmlPullParserException e) {
+					throw new RuntimeException("Failed to parse XML", e);
+				} catch (IOException e) {
+					throw new RuntimeException("IOException parsing XML", e);
+				}
 			}
+		}, true, Metrics.Endpoint.WORLD, shards);
+	}
+
+	/**
+	 * Parses world information
+	 * @param data the NSData to parse
+	 * @return a WorldData object with world info
+	 */
+	public WorldData getWorldInfo(NSData data) {
+		try {
+			log.trace("Parsing World Info");
 			XmlPullParser xpp = null;
 			xpp = data.xpp;
 			xpp.setFeature("http://xmlpull.org/v1/doc/features.html#relaxed", relaxed);
@@ -468,9 +651,7 @@ public class NationStates {
 				switch (xpp.getEventType()) {
 				case XmlPullParser.START_TAG:
 					tagName = xpp.getName().toLowerCase();
-					if (verbose) {
-						System.out.println("Parsing World Tag: " + tagName);
-					}
+					log.trace("Parsing World Tag: {}", tagName);
 					if (tagName.equals(WorldData.Shards.NUM_NATIONS.getTag())) {
 						world.numNations = Integer.parseInt(xpp.nextText());
 					}
@@ -496,13 +677,13 @@ public class NationStates {
 						world.featuredRegion = xpp.nextText();
 					}
 					else if (tagName.equals(WorldData.Shards.NEW_NATIONS.getTag())) {
-						world.newNations = xpp.nextText().split(",");
+						world.newNations = ListTokenizer.split(xpp, ',');
 					}
 					else if (tagName.equals(WorldData.Shards.REGIONS_BY_TAG.getTag())) {
-						world.regionsByTag = xpp.nextText().split(",");
+						world.regionsByTag = ListTokenizer.split(xpp, ',');
 					}
-					else if (verbose) {
-						System.err.println("Unknown world tag: " + tagName);
+					else {
+						log.debug("Unknown world tag: {}", tagName);
 					}
 					break;
 				}
@@ -525,13 +706,32 @@ public class NationStates {
 	 * @return a WAData object with World Assembly info
 	 * @throws RateLimitReachedException if the rate limit was reached (but not exceeded)
 	 */
-	public WAData getWAInfo(WACouncil council, WAData.Shards...shards) {
-		if (!makeCall()) {
-			throw new RateLimitReachedException();
-		}
-		NSData data = null;
+	public WAData getWAInfo(final WACouncil council, final WAData.Shards...shards) {
+		return call(new Fetch<WAData>() {
+			@Override
+			public WAData fetch() {
+				if (!makeCall()) {
+					throw new RateLimitReachedException();
+				}
+				try {
+					return getWAInfo(getInfo("?wa="+council.getId(), shards), council);
+				} catch (XmlPullParserException e) {
+					throw new RuntimeException("Failed to parse XML", e);
+				} catch (IOException e) {
+					throw new RuntimeException("IOException parsing XML", e);
+				}
+			}
+		}, true, Metrics.Endpoint.WA, shards);
+	}
+
+	/**
+	 * Parses World Assembly information
+	 * @param data the NSData to parse
+	 * @param council the council that was queried
+	 * @return a WAData object with World Assembly info
+	 */
+	public WAData getWAInfo(NSData data, WACouncil council) {
 		try {
-			data = getInfo("?wa="+council.getId(), shards);
 			XmlPullParser xpp = null;
 			xpp = data.xpp;
 			xpp.setFeature("http://xmlpull.org/v1/doc/features.html#relaxed", relaxed);
@@ -548,10 +748,10 @@ public class NationStates {
 						wa.numDelegates = Integer.parseInt(xpp.nextText());
 					}
 					else if (tagName.equals(WAData.Shards.DELEGATES.getTag())) {
-						wa.delegates = xpp.nextText().split(",");
+						wa.delegates = ListTokenizer.split(xpp, ',');
 					}
 					else if (tagName.equals(WAData.Shards.MEMBERS.getTag())) {
-						wa.members = xpp.nextText().split(",");
+						wa.members = ListTokenizer.split(xpp, ',');
 					}
 					else if (tagName.equals(WAData.Shards.HAPPENINGS.getTag())) {
 						wa.happenings = parseWAHappenings(xpp);
@@ -567,8 +767,8 @@ public class NationStates {
 						wa.resolution = parseResolution(xpp);
 						wa.resolution.council = council;
 					}
-					else if (verbose) {
-						System.err.println("Unknown WA tag: " + tagName);
+					else {
+						log.debug("Unknown WA tag: {}", tagName);
 					}
 					break;
 				}
@@ -684,176 +884,50 @@ public class NationStates {
 	* @throws RateLimitReachedException if the rate limit was reached (but not exceeded)
 	* @throws UnknownNationException if the nation could not be found
 	*/
-	public NationData getNationInfo(String name, NationData.Shards...shards) {
-		if (!makeCall()) {
-			throw new RateLimitReachedException();
-		}
-		NSData data = null;
-		try {
-			data = getInfo("?nation=" + name.replace(' ', '_'), shards);
-			if (verbose) {
-				System.out.println("Parsing Nation Info");
+	public NationData getNationInfo(final String name, final NationData.Shards...shards) {
+		return call(new Fetch<NationData>() {
+			@Override
+			public NationData fetch() {
+				if (!makeCall()) {
+					throw new RateLimitReachedException();
+				}
+				try {
+					return getNationInfo(getInfo("?nation=" + name.replace(' ', '_'), shards), name);
+				} catch (XmlPullParserException e) {
+					throw new RuntimeException("Failed to parse XML", e);
+				} catch (IOException e) {
+					throw new RuntimeException("IOException parsing XML", e);
+				}
 			}
+		}, true, Metrics.Endpoint.NATION, shards);
+	}
+
+	/**
+	 * Fetches many nations on {@value NationBatch#DEFAULT_CONCURRENCY} background threads, waiting
+	 * for the rate limit when needed (create a {@link NationBatch} to choose the concurrency)
+	 * @param names the nation ids
+	 * @param listener to receive the nations, the names that failed and the progress
+	 * @param shards the shards to request
+	 * @return the started batch, to wait for or cancel
+	 */
+	public NationBatch getNationsInfo(Collection<String> names, NationBatch.Listener listener, NationData.Shards...shards) {
+		return new NationBatch(this, names, listener, shards).start();
+	}
+
+	/**
+	 * Parses information on a nation
+	 * @param data the NSData to parse
+	 * @param name the nation id
+	 * @return a NationData object with nation info
+	 * @throws UnknownNationException if the nation could not be found
+	 */
+	public NationData getNationInfo(NSData data, String name) {
+		try {
+			log.trace("Parsing Nation Info");
 			XmlPullParser xpp = null;
 			xpp = data.xpp;
 			xpp.setFeature("http://xmlpull.org/v1/doc/features.html#relaxed", relaxed);
-			String tagName = null;
-			NationData nation = new NationData();
-			while (xpp.next() != XmlPullParser.END_DOCUMENT) {
-				switch (xpp.getEventType()) {
-				case XmlPullParser.TEXT:
-					if (xpp.getText().contains("Unknown nation")) {
-						throw new UnknownNationException(name);
-					}
-					break;
-				case XmlPullParser.START_TAG:
-					if (verbose) {
-						System.out.println("Parsing Nation Tag: " + tagName);
-					}
-					tagName = xpp.getName().toLowerCase();
-					if (tagName.equals(NationData.Shards.CATEGORY.getTag())) {
-						nation.category = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.FREEDOMS.getTag())) {
-						nation.freedoms = parseFreedoms(xpp, nation.freedoms);
-					}
-					else if (tagName.equals(NationData.Shards.FULL_NAME.getTag())) {
-						nation.fullName = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.MOTTO.getTag())) {
-						nation.motto = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.FLAG.getTag())) {
-						nation.flagURL = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.REGION.getTag())) {
-						nation.region = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.POPULATION.getTag())) {
-						nation.population = Integer.parseInt(xpp.nextText());
-					}
-					else if (tagName.equals(NationData.Shards.ADMIRABLE.getTag())) {
-						nation.admirable = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.NOTABLE.getTag())) {
-						nation.notable = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.SENSIBILITIES.getTag())) {
-						nation.sensibilities = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.GOVERNMENT_DESCRIPTION.getTag())) {
-						nation.governmentDescription = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.TAX_RATE.getTag())) {
-						nation.taxRate = Integer.parseInt(xpp.nextText());
-					}
-					else if (tagName.equals(NationData.Shards.INDUSTRY_DESCRIPTION.getTag())) {
-						nation.industryDescription = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.LEGISLATION.getTag())) {
-						nation.legislation = parseLegislation(xpp);
-					}
-					else if (tagName.equals(NationData.Shards.CRIME.getTag())) {
-						nation.crime = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.NAME.getTag())) {
-						nation.name = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.ANIMAL.getTag())) {
-						nation.animal = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.ANIMAL_TRAIT.getTag())) {
-						nation.animalTrait = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.CURRENCY.getTag())) {
-						nation.currency = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.LEADER.getTag())) {
-						String str = xpp.nextText();
-						nation.leader = (str.length() > 0 ? str : null);
-					}
-					else if (tagName.equals(NationData.Shards.RELIGION.getTag())) {
-						String str = xpp.nextText();
-						nation.religion = (str.length() > 0 ? str : null);
-					}
-					else if (tagName.equals(NationData.Shards.HAPPENINGS.getTag())) {
-						nation.happenings = parseNationHappenings(xpp);
-					}
-					else if (tagName.equals(NationData.Shards.TYPE.getTag())) {
-						nation.type = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.WA_STATUS.getTag())) {
-						nation.worldAssemblyStatus = WAStatus.parse(xpp.nextText());
-					}
-					else if (tagName.equals(NationData.Shards.ENDORSEMENTS.getTag())) {
-						nation.endorsements = xpp.nextText().split(",");
-					}
-					else if (tagName.equals(NationData.Shards.GA_VOTE.getTag())) {
-						nation.generalAssemblyVote = WAVote.parse(xpp.nextText());
-					}
-					else if (tagName.equals(NationData.Shards.SC_VOTE.getTag())) {
-						nation.generalAssemblyVote = WAVote.parse(xpp.nextText());
-					}
-					else if (tagName.equals(NationData.Shards.MAJOR_INDUSTRY.getTag())) {
-						nation.majorIndustry = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.GOVERNMENT_PRIORITY.getTag())) {
-						nation.governmentPriority = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.GOVERNMENT_BUDGET.getTag())) {
-						nation.governmentBudget = parseBudget(xpp);
-					}
-					else if (tagName.equals(NationData.Shards.FOUNDED.getTag())) {
-						String str = xpp.nextText();
-						nation.founded = (str.equals("0") ? "In antiquity" : str);
-					}
-					else if (tagName.equals(NationData.Shards.FIRST_LOGIN.getTag())) {
-						nation.firstLogin = Long.parseLong(xpp.nextText());
-					}
-					else if (tagName.equals(NationData.Shards.LAST_ACTIVITY.getTag())) {
-						String str = xpp.nextText();
-						nation.lastActivity = (str.equals("0") ? "In antiquity" : str);
-					}
-					else if (tagName.equals(NationData.Shards.LAST_LOGIN.getTag())) {
-						nation.lastLogin = Long.parseLong(xpp.nextText());
-					}
-					else if (tagName.equals(NationData.Shards.INFLUENCE.getTag())) {
-						nation.influence = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.FREEDOM_SCORES.getTag())) {
-						nation.freedoms = parseFreedomScores(xpp, nation.freedoms);
-					}
-					else if (tagName.equals(NationData.Shards.PUBLIC_SECTOR.getTag())) {
-						String str = xpp.nextText();
-						nation.publicSector = Float.parseFloat(str);
-					}
-					else if (tagName.equals(NationData.Shards.DEATHS.getTag())) {
-						nation.deaths = parseDeaths(xpp);
-					}
-					else if (tagName.equals(NationData.Shards.CAPITAL.getTag())) {
-						nation.capital = xpp.nextText();
-					}
-					else if (tagName.equals(NationData.Shards.REGIONAL_CENSUS.getTag())) {
-						nation.regionalCensus = Integer.parseInt(xpp.nextText());
-					}
-					else if (tagName.equals(NationData.Shards.WORLD_CENSUS.getTag())) {
-						nation.worldCensus = Integer.parseInt(xpp.nextText());
-					}
-					else if (tagName.equals(NationData.Shards.CENSUS_SCORE.getTag())) {
-						if(nation.censusScore == null) {
-							nation.censusScore = new HashMap<Integer, Float>();
-						}
-						int id = Integer.parseInt(xpp.getAttributeValue(null,
-								NationData.Shards.Attributes.CENSUS_SCORE_ID.getName()));
-						nation.censusScore.put(id, Float.parseFloat(xpp.nextText()));
-					}
-					else if (verbose) {
-						System.err.println("Unknown nation tag: " + tagName);
-					}
-					break;
-				}
-			}
-			return nation;
+			return parseNation(xpp, name, false);
 		} catch (XmlPullParserException e) {
 			throw new RuntimeException("Failed to parse XML", e);
 		} catch (IOException e) {
@@ -864,6 +938,195 @@ public class NationStates {
 		}
 	}
 
+	/**
+	 * Parses nation tags until the end of the element the parser is currently on
+	 * (or until the end of the document if it is not on an element)
+	 * @param xpp the parser
+	 * @param name the nation id (for error reporting, may be null)
+	 * @param skipUnknown whether to skip the whole subtree of unknown tags
+	 * @return a NationData object with nation info
+	 * @throws UnknownNationException if the nation could not be found
+	 */
+	NationData parseNation(XmlPullParser xpp, String name, boolean skipUnknown)
+		throws XmlPullParserException, IOException {
+		int depth = xpp.getEventType() == XmlPullParser.START_TAG ? xpp.getDepth() : 0;
+		String tagName = null;
+		NationData nation = new NationData();
+		loop: while (xpp.next() != XmlPullParser.END_DOCUMENT) {
+			switch (xpp.getEventType()) {
+			case XmlPullParser.TEXT:
+				if (xpp.getText().contains("Unknown nation")) {
+					throw new UnknownNationException(name);
+				}
+				break;
+			case XmlPullParser.START_TAG:
+				tagName = xpp.getName().toLowerCase();
+				log.trace("Parsing Nation Tag: {}", tagName);
+				if (tagName.equals(NationData.Shards.CATEGORY.getTag())) {
+					nation.category = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.FREEDOMS.getTag())) {
+					nation.freedoms = parseFreedoms(xpp, nation.freedoms);
+				}
+				else if (tagName.equals(NationData.Shards.FULL_NAME.getTag())) {
+					nation.fullName = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.MOTTO.getTag())) {
+					nation.motto = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.FLAG.getTag())) {
+					nation.flagURL = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.REGION.getTag())) {
+					nation.region = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.POPULATION.getTag())) {
+					nation.population = Integer.parseInt(xpp.nextText());
+				}
+				else if (tagName.equals(NationData.Shards.ADMIRABLE.getTag())) {
+					nation.admirable = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.NOTABLE.getTag())) {
+					nation.notable = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.SENSIBILITIES.getTag())) {
+					nation.sensibilities = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.GOVERNMENT_DESCRIPTION.getTag())) {
+					nation.governmentDescription = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.TAX_RATE.getTag())) {
+					nation.taxRate = Integer.parseInt(xpp.nextText());
+				}
+				else if (tagName.equals(NationData.Shards.INDUSTRY_DESCRIPTION.getTag())) {
+					nation.industryDescription = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.LEGISLATION.getTag())) {
+					nation.legislation = parseLegislation(xpp);
+				}
+				else if (tagName.equals(NationData.Shards.CRIME.getTag())) {
+					nation.crime = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.NAME.getTag())) {
+					nation.name = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.ANIMAL.getTag())) {
+					nation.animal = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.ANIMAL_TRAIT.getTag())) {
+					nation.animalTrait = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.CURRENCY.getTag())) {
+					nation.currency = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.LEADER.getTag())) {
+					String str = xpp.nextText();
+					nation.leader = (str.length() > 0 ? str : null);
+				}
+				else if (tagName.equals(NationData.Shards.RELIGION.getTag())) {
+					String str = xpp.nextText();
+					nation.religion = (str.length() > 0 ? str : null);
+				}
+				else if (tagName.equals(NationData.Shards.HAPPENINGS.getTag())) {
+					nation.happenings = parseNationHappenings(xpp);
+				}
+				else if (tagName.equals(NationData.Shards.TYPE.getTag())) {
+					nation.type = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.WA_STATUS.getTag())) {
+					nation.worldAssemblyStatus = WAStatus.parse(xpp.nextText());
+				}
+				else if (tagName.equals(NationData.Shards.ENDORSEMENTS.getTag())) {
+					nation.endorsements = ListTokenizer.split(xpp, ',');
+				}
+				else if (tagName.equals(NationData.Shards.GA_VOTE.getTag())) {
+					nation.generalAssemblyVote = WAVote.parse(xpp.nextText());
+				}
+				else if (tagName.equals(NationData.Shards.SC_VOTE.getTag())) {
+					nation.generalAssemblyVote = WAVote.parse(xpp.nextText());
+				}
+				else if (tagName.equals(NationData.Shards.MAJOR_INDUSTRY.getTag())) {
+					nation.majorIndustry = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.GOVERNMENT_PRIORITY.getTag())) {
+					nation.governmentPriority = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.GOVERNMENT_BUDGET.getTag())) {
+					nation.governmentBudget = parseBudget(xpp);
+				}
+				else if (tagName.equals(NationData.Shards.FOUNDED.getTag())) {
+					String str = xpp.nextText();
+					nation.founded = (str.equals("0") ? "In antiquity" : str);
+				}
+				else if (tagName.equals(NationData.Shards.FIRST_LOGIN.getTag())) {
+					nation.firstLogin = Long.parseLong(xpp.nextText());
+				}
+				else if (tagName.equals(NationData.Shards.LAST_ACTIVITY.getTag())) {
+					String str = xpp.nextText();
+					nation.lastActivity = (str.equals("0") ? "In antiquity" : str);
+				}
+				else if (tagName.equals(NationData.Shards.LAST_LOGIN.getTag())) {
+					nation.lastLogin = Long.parseLong(xpp.nextText());
+				}
+				else if (tagName.equals(NationData.Shards.INFLUENCE.getTag())) {
+					nation.influence = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.FREEDOM_SCORES.getTag())) {
+					nation.freedoms = parseFreedomScores(xpp, nation.freedoms);
+				}
+				else if (tagName.equals(NationData.Shards.PUBLIC_SECTOR.getTag())) {
+					String str = xpp.nextText();
+					nation.publicSector = Float.parseFloat(str);
+				}
+				else if (tagName.equals(NationData.Shards.DEATHS.getTag())) {
+					nation.deaths = parseDeaths(xpp);
+				}
+				else if (tagName.equals(NationData.Shards.CAPITAL.getTag())) {
+					nation.capital = xpp.nextText();
+				}
+				else if (tagName.equals(NationData.Shards.REGIONAL_CENSUS.getTag())) {
+					nation.regionalCensus = Integer.parseInt(xpp.nextText());
+				}
+				else if (tagName.equals(NationData.Shards.WORLD_CENSUS.getTag())) {
+					nation.worldCensus = Integer.parseInt(xpp.nextText());
+				}
+				else if (tagName.equals(NationData.Shards.CENSUS_SCORE.getTag())) {
+					if(nation.censusScore == null) {
+						nation.censusScore = new HashMap<Integer, Float>();
+					}
+					int id = Integer.parseInt(xpp.getAttributeValue(null,
+							NationData.Shards.Attributes.CENSUS_SCORE_ID.getName()));
+					nation.censusScore.put(id, Float.parseFloat(xpp.nextText()));
+				}
+				else {
+					log.debug("Unknown nation tag: {}", tagName);
+					if (skipUnknown) {
+						skipElement(xpp);
+					}
+				}
+				break;
+			case XmlPullParser.END_TAG:
+				if (xpp.getDepth() == depth) {
+					break loop;
+				}
+			}
+		}
+		return nation;
+	}
+
+	/**
+	 * Skips the element the parser is on, leaving it on the matching END_TAG
+	 * @param xpp the parser, positioned on a START_TAG
+	 */
+	private static void skipElement(XmlPullParser xpp) throws XmlPullParserException, IOException {
+		int depth = xpp.getDepth();
+		while (xpp.next() != XmlPullParser.END_DOCUMENT) {
+			if (xpp.getEventType() == XmlPullParser.END_TAG && xpp.getDepth() == depth) {
+				return;
+			}
+		}
+	}
+
 	private NationFreedoms parseFreedoms(XmlPullParser xpp, NationFreedoms freedoms)
 		throws XmlPullParserException, IOException {
 		String tagName = null;
@@ -883,8 +1146,8 @@ public class NationStates {
 				else if (tagName.equals(NationData.Shards.SubTags.FREEDOMS_POLITICAL_FREEDOM.getTag())) {
 					freedoms.politicalFreedoms = xpp.nextText();
 				}
-				else if (verbose) {
-					System.err.println("Unknown freedom tag: " + tagName);
+				else {
+					log.debug("Unknown freedom tag: {}", tagName);
 				}
 				break;
 			case XmlPullParser.END_TAG:
@@ -915,8 +1178,8 @@ public class NationStates {
 				else if (tagName.equals(NationData.Shards.SubTags.FREEDOMS_POLITICAL_FREEDOM.getTag())) {
 					freedoms.politicalFreedomsValue = Integer.parseInt(xpp.nextText());
 				}
-				else if (verbose) {
-					System.err.println("Unknown freedom score tag: " + tagName);
+				else {
+					log.debug("Unknown freedom score tag: {}", tagName);
 				}
 				break;
 			case XmlPullParser.END_TAG:
@@ -1041,8 +1304,8 @@ public class NationStates {
 				else if (tagName.equals(NationData.Shards.SubTags.BUDGET_COMMERCE.getTag())) {
 					budget.commerce = value;
 				}
-				else if (verbose) {
-					System.err.println("Unknown budget tag: " + tagName);
+				else {
+					log.debug("Unknown budget tag: {}", tagName);
 				}
 				break;
 			case XmlPullParser.END_TAG:
@@ -1092,76 +1355,10 @@ public class NationStates {
 	 */
 	public RegionData getRegionInfo(NSData data, String name) {
 		try {
-			if (verbose) {
-				System.out.println("Parsing Region Info");
-			}
-			String tagName = null;
+			log.trace("Parsing Region Info");
 			XmlPullParser xpp = data.xpp;
 			xpp.setFeature("http://xmlpull.org/v1/doc/features.html#relaxed", relaxed);
-			RegionData region = new RegionData();
-			while (xpp.next() != XmlPullParser.END_DOCUMENT)
-				switch (xpp.getEventType()) {
-				case XmlPullParser.TEXT:
-					if (xpp.getText().contains("Unknown region")) {
-						throw new UnknownRegionException(name);
-				}
-					break;
-				case XmlPullParser.START_TAG:
-					tagName = xpp.getName().toLowerCase();
-					if (verbose) {
-						System.out.println("Parsing Region Tag: " + tagName);
-					}
-					if (tagName.equals(RegionData.Shards.FLAG.getTag())) {
-						region.flagURL = xpp.nextText();
-					}
-					else if (tagName.equals(RegionData.Shards.NAME.getTag())) {
-						region.name = xpp.nextText();
-					}
-					else if (tagName.equals(RegionData.Shards.FACTBOOK.getTag())) {
-						region.factbook = xpp.nextText();
-					}
-					else if (tagName.equals(RegionData.Shards.DELEGATE.getTag())) {
-						region.delegate = xpp.nextText();
-					}
-					else if (tagName.equals(RegionData.Shards.FOUNDER.getTag())) {
-						region.founder = xpp.nextText();
-					}
-					else if (tagName.equals(RegionData.Shards.HAPPENINGS.getTag())) {
-						region.happenings = parseRegionHappenings(xpp);
-					}
-					else if (tagName.equals(RegionData.Shards.MESSAGES.getTag())) {
-						region.messages = parseRMBMessages(xpp);
-					}
-					else if (tagName.equals(RegionData.Shards.NUM_NATIONS.getTag())) {
-						region.numNations = Integer.parseInt(xpp.nextText());
-					}
-					else if (tagName.equals(RegionData.Shards.NATIONS.getTag())) {
-						region.nations = xpp.nextText().split(":");
-					}
-					else if (tagName.equals(RegionData.Shards.DELEGATE_VOTES.getTag())) {
-						region.delegateVotes = Integer.parseInt(xpp.nextText());
-					}
-					else if (tagName.equals(RegionData.Shards.GA_VOTES.getTag())) {
-						region.generalAssemblyVotes = parseWAVotes(xpp, RegionData.Shards.GA_VOTES.getTag());
-					}
-					else if (tagName.equals(RegionData.Shards.SC_VOTES.getTag())) {
-						region.securityCouncilVotes = parseWAVotes(xpp, RegionData.Shards.SC_VOTES.getTag());
-					}
-					else if (tagName.equals(RegionData.Shards.POWER.getTag())) {
-						region.power = xpp.nextText();
-					}
-					else if (tagName.equals(RegionData.Shards.EMBASSIES.getTag())) {
-						region.embassies = parseEmbassies(xpp);
-					}
-					else if (tagName.equals(RegionData.Shards.TAGS.getTag())) {
-						region.tags = parseTags(xpp);
-					}
-					else if (verbose) {
-						System.err.println("Unknown region tag: " + tagName);
-					}
-					break;
-				}
-			return region;
+			return parseRegion(xpp, name, false);
 		} catch (XmlPullParserException e) {
 			throw new RuntimeException("Failed to parse XML", e);
 		} catch (IOException e) {
@@ -1172,6 +1369,90 @@ public class NationStates {
 		}
 	}
 
+	/**
+	 * Parses region tags until the end of the element the parser is currently on
+	 * (or until the end of the document if it is not on an element)
+	 * @param xpp the parser
+	 * @param name the region id (for error reporting, may be null)
+	 * @param skipUnknown whether to skip the whole subtree of unknown tags
+	 * @return a RegionData object with region info
+	 * @throws UnknownRegionException if the region could not be found
+	 */
+	RegionData parseRegion(XmlPullParser xpp, String name, boolean skipUnknown)
+		throws XmlPullParserException, IOException {
+		int depth = xpp.getEventType() == XmlPullParser.START_TAG ? xpp.getDepth() : 0;
+		String tagName = null;
+		RegionData region = new RegionData();
+		loop: while (xpp.next() != XmlPullParser.END_DOCUMENT)
+			switch (xpp.getEventType()) {
+			case XmlPullParser.TEXT:
+				if (xpp.getText().contains("Unknown region")) {
+					throw new UnknownRegionException(name);
+			}
+				break;
+			case XmlPullParser.START_TAG:
+				tagName = xpp.getName().toLowerCase();
+				log.trace("Parsing Region Tag: {}", tagName);
+				if (tagName.equals(RegionData.Shards.FLAG.getTag())) {
+					region.flagURL = xpp.nextText();
+				}
+				else if (tagName.equals(RegionData.Shards.NAME.getTag())) {
+					region.name = xpp.nextText();
+				}
+				else if (tagName.equals(RegionData.Shards.FACTBOOK.getTag())) {
+					region.factbook = xpp.nextText();
+				}
+				else if (tagName.equals(RegionData.Shards.DELEGATE.getTag())) {
+					region.delegate = xpp.nextText();
+				}
+				else if (tagName.equals(RegionData.Shards.FOUNDER.getTag())) {
+					region.founder = xpp.nextText();
+				}
+				else if (tagName.equals(RegionData.Shards.HAPPENINGS.getTag())) {
+					region.happenings = parseRegionHappenings(xpp);
+				}
+				else if (tagName.equals(RegionData.Shards.MESSAGES.getTag())) {
+					region.messages = parseRMBMessages(xpp);
+				}
+				else if (tagName.equals(RegionData.Shards.NUM_NATIONS.getTag())) {
+					region.numNations = Integer.parseInt(xpp.nextText());
+				}
+				else if (tagName.equals(RegionData.Shards.NATIONS.getTag())) {
+					region.nations = ListTokenizer.split(xpp, ':');
+				}
+				else if (tagName.equals(RegionData.Shards.DELEGATE_VOTES.getTag())) {
+					region.delegateVotes = Integer.parseInt(xpp.nextText());
+				}
+				else if (tagName.equals(RegionData.Shards.GA_VOTES.getTag())) {
+					region.generalAssemblyVotes = parseWAVotes(xpp, RegionData.Shards.GA_VOTES.getTag());
+				}
+				else if (tagName.equals(RegionData.Shards.SC_VOTES.getTag())) {
+					region.securityCouncilVotes = parseWAVotes(xpp, RegionData.Shards.SC_VOTES.getTag());
+				}
+				else if (tagName.equals(RegionData.Shards.POWER.getTag())) {
+					region.power = xpp.nextText();
+				}
+				else if (tagName.equals(RegionData.Shards.EMBASSIES.getTag())) {
+					region.embassies = parseEmbassies(xpp);
+				}
+				else if (tagName.equals(RegionData.Shards.TAGS.getTag())) {
+					region.tags = parseTags(xpp);
+				}
+				else {
+					log.debug("Unknown region tag: {}", tagName);
+					if (skipUnknown) {
+						skipElement(xpp);
+					}
+				}
+				break;
+			case XmlPullParser.END_TAG:
+				if (xpp.getDepth() == depth) {
+					break loop;
+				}
+			}
+		return region;
+	}
+
 	/**
 	 * Fetches information on a region
 	 * @param name the region id
@@ -1180,17 +1461,22 @@ public class NationStates {
 	 * @throws RateLimitReachedException if the rate limit was reached (but not exceeded)
 	 * @throws UnknownRegionException if the region could not be found
 	 */
-	public RegionData getRegionInfo(String name, RegionData.Shards...shards) {
-		if (!makeCall()) {
-			throw new RateLimitReachedException();
-		}
-		try {
-			return getRegionInfo(getInfo(new StringBuilder().append("?region=").append(name.replace(' ', '_')).toString(), shards), name);
-		} catch (XmlPullParserException e) {
-			throw new RuntimeException("Failed to parse XML", e);
-		} catch (IOException e) {
-			throw new RuntimeException("IOException parsing XML", e);
-		}
+	public RegionData getRegionInfo(final String name, final RegionData.Shards...shards) {
+		return call(new Fetch<RegionData>() {
+			@Override
+			public RegionData fetch() {
+				if (!makeCall()) {
+					throw new RateLimitReachedException();
+				}
+				try {
+					return getRegionInfo(getInfo(new StringBuilder().append("?region=").append(name.replace(' ', '_')).toString(), shards), name);
+				} catch (XmlPullParserException e) {
+					throw new RuntimeException("Failed to parse XML", e);
+				} catch (IOException e) {
+					throw new RuntimeException("IOException parsing XML", e);
+				}
+			}
+		}, true, Metrics.Endpoint.REGION, shards);
 	}
 
 	private List<RegionHappening> parseRegionHappenings(XmlPullParser xpp)
@@ -1274,7 +1560,7 @@ public class NationStates {
 					votes.againstVotes = str.length() == 0 ? 0 : Integer.parseInt(str);
 				}
 				else {
-					System.err.println("Unknown WA voting tag: " + tagName);
+					log.debug("Unknown WA voting tag: {}", tagName);
 				}
 				break;
 			case XmlPullParser.END_TAG:
@@ -1345,7 +1631,7 @@ public class NationStates {
 	 */
 	private NSData getInfo(String urlStart, IShards...shards) throws XmlPullParserException, IOException {
 		String shardsStr = buildShardString(shards);
-		String str = API + urlStart + (this.version > -1 ? "&v=" + this.version : "") +
+		String str = getApiUrl() + urlStart + (this.version > -1 ? "&v=" + this.version : "") +
 				"&q=" + shardsStr;
 
 		return getInfo(doRequest(str));
@@ -1369,31 +1655,100 @@ public class NationStates {
 		return shardsStr;
 	}
 
-	private synchronized InputStream doRequest(String url) throws IOException {
-		if (verbose) {
-			System.out.println("Making HTTP request: " + url);
+	/**
+	 * Makes a call, recording it in the metrics and, if idempotent, retrying it according to the
+	 * retry policy
+	 */
+	private <T> T call(Fetch<T> fetch, boolean idempotent, Metrics.Endpoint endpoint, IShards...shards) {
+		RetryPolicy policy = idempotent ? getRetryPolicy() : RetryPolicy.NONE;
+		long deadline = policy.getDeadline() > 0 ? System.currentTimeMillis() + policy.getDeadline() : 0;
+		if (deadline != 0) {
+			deadlines.set(Long.valueOf(deadline));
 		}
+		Metrics.Call call = getMetrics().begin(endpoint, shards);
+		call.queued(scheduler.takeWait());
+		try {
+			for (int attempt = 1; ; attempt++) {
+				try {
+					return fetch.fetch();
+				} catch (RuntimeException e) {
+					long delay = policy.getDelay(attempt, e, deadline);
+					if (delay < 0) {
+						throw e;
+					}
+					call.retrying();
+					log.debug("Retrying in {} ms: {}", Long.valueOf(delay), e.getCause());
+					try {
+						Thread.sleep(delay);
+						// A permit covers one attempt, the retry waits for its own in the same class
+						scheduler.renew();
+						call.queued(scheduler.takeWait());
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw e;
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			call.failed(e);
+			throw e;
+		} finally {
+			call.end();
+			deadlines.remove();
+		}
+	}
 
-		final HttpParams httpParams = new BasicHttpParams();
-		HttpClient client = new DefaultHttpClient(httpParams);
-		if (proxyIP != null) {
-			HttpHost proxy = new HttpHost(proxyIP, proxyPort);
-			client.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
+	private InputStream doRequest(String url) throws IOException {
+		Transport transport;
+		Request request;
+		Metrics.Call call;
+		log.debug("Making HTTP request: {}", url);
+		synchronized (this) {
+			transport = this.transport;
+			request = new Request(url, userAgent, requestTimeout(), proxyIP, proxyPort);
+			call = metrics.current();
+		}
+		if (call != null) {
+			call.requestSent(url);
+		}
+		Response response = transport.get(request);
+		InputStream body = response.body;
+		if (call != null) {
+			body = call.responseReceived(response.status, body);
 		}
-		HttpConnectionParams.setConnectionTimeout(client.getParams(), (int) timeout);
-		HttpConnectionParams.setSoTimeout(client.getParams(), (int) timeout);
-		client.getParams().setParameter(CoreProtocolPNames.USER_AGENT, this.userAgent);
-		client.getParams().setParameter(ClientPNames.ALLOW_CIRCULAR_REDIRECTS, true);
-		HttpGet get = new HttpGet(url);
-		HttpResponse response = client.execute(get);
-		if (verbose) {
-			System.out.println("Status code for request: " + response.getStatusLine().getStatusCode());
+		Long deadline = deadlines.get();
+		if (deadline != null) {
+			// The read timeout bounds each read, this bounds the whole body
+			body = new DeadlineInputStream(body, deadline.longValue());
 		}
-		if (response.getStatusLine().getStatusCode() == 429)  {
-			hardRateLimit = System.currentTimeMillis() + 900000L; //15 min
+		if (log.isEnabled(Log.Level.DEBUG)) {
+			log.debug("Status code for request: {}", Integer.valueOf(response.status));
+		}
+		if (response.status == 429)  {
+			body.close();
+			getRateLimiter().lockOut(System.currentTimeMillis() + 900000L); //15 min
 			throw new RateLimitReachedException();
 		}
-		return response.getEntity().getContent();
+		if (response.status >= 500) {
+			body.close();
+			throw new ServerErrorException(response.status);
+		}
+		return body;
+	}
+
+	/**
+	 * @return the timeout, shortened to the time left before the deadline of the current call
+	 */
+	private long requestTimeout() throws IOException {
+		Long deadline = deadlines.get();
+		if (deadline == null) {
+			return timeout;
+		}
+		long left = deadline.longValue() - System.currentTimeMillis();
+		if (left <= 0) {
+			throw new SocketTimeoutException("Call deadline exceeded");
+		}
+		return Math.min(timeout, left);
 	}
 
 	/**
@@ -1404,7 +1759,17 @@ public class NationStates {
 	 */
 	public NSData getInfo(InputStream stream) throws XmlPullParserException, IOException {
 		KXmlParser xpp = new KXmlParser();
-		xpp.setInput(stream, "ISO-8859-15");
-		return new NSData(xpp, stream);
+		boolean owned = false;
+		try {
+			xpp.setInput(stream, "ISO-8859-15");
+			NSData data = new NSData(xpp, stream);
+			owned = true;
+			return data;
+		} finally {
+			if (!owned) {
+				// The data never took the stream, so nobody else will close it
+				stream.close();
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi;
+
+import com.limewoodMedia.nsapi.metrics.Gauge;
+import com.limewoodMedia.nsapi.metrics.Metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Verifies nation checksums, caching successful verifications.
+ * <p>
+ * A successful verification of a (nation, checksum, token) combination is remembered for the
+ * cache window, so repeated session checks do not call the API again. Concurrent verifications
+ * of the same combination share a single API call. Failed verifications are never cached.
+ * @author Afforess
+ *
+ */
+public class NationVerifier {
+	public static final long DEFAULT_CACHE_WINDOW = 5 * 60 * 1000L;
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	private final NationStates api;
+	private final ConcurrentMap<String, FutureTask<Boolean>> pending = new ConcurrentHashMap<String, FutureTask<Boolean>>();
+	private final Map<String, Long> verified;
+	private long cacheWindow = DEFAULT_CACHE_WINDOW;
+	private long hits;
+	private long calls;
+
+	/**
+	 * Creates a verifier caching up to {@value #DEFAULT_MAX_ENTRIES} verifications
+	 * @param api the API to verify with
+	 */
+	public NationVerifier(NationStates api) {
+		this(api, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Creates a verifier
+	 * @param api the API to verify with
+	 * @param maxEntries the max number of verifications cached
+	 */
+	public NationVerifier(NationStates api, final int maxEntries) {
+		this.api = api;
+		this.verified = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Adds a gauge for the cache hit ratio
+	 * @param metrics the metrics
+	 * @param name the gauge name prefix, e.g. "verifier"
+	 */
+	public void addGauges(Metrics metrics, String name) {
+		metrics.addGauge(name + ".cacheHitRatio", new Gauge() {
+			@Override
+			public double getValue() {
+				return getCacheHitRatio();
+			}
+		});
+	}
+
+	/**
+	 * @param cacheWindow how long successful verifications are cached, in milliseconds
+	 */
+	public synchronized void setCacheWindow(long cacheWindow) {
+		this.cacheWindow = cacheWindow;
+	}
+
+	public synchronized long getCacheWindow() {
+		return cacheWindow;
+	}
+
+	/**
+	 * Verifies a nation checksum
+	 * @param nation name to verify
+	 * @param checksum of the nation
+	 * @param token site-specific token (optional, null if none)
+	 * @return true if verified
+	 * @throws com.limewoodMedia.nsapi.exceptions.RateLimitReachedException if the rate limit was reached
+	 */
+	public boolean verify(final String nation, final String checksum, final String token) {
+		final String key = key(nation, checksum, token);
+		synchronized (this) {
+			Long expires = verified.get(key);
+			if (expires != null) {
+				if (expires.longValue() > System.currentTimeMillis()) {
+					hits++;
+					return true;
+				}
+				verified.remove(key);
+			}
+		}
+		FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				synchronized (NationVerifier.this) {
+					calls++;
+				}
+				boolean result = api.verifyNation(nation, checksum, token);
+				if (result) {
+					synchronized (NationVerifier.this) {
+						verified.put(key, Long.valueOf(System.currentTimeMillis() + cacheWindow));
+					}
+				}
+				return Boolean.valueOf(result);
+			}
+		});
+		FutureTask<Boolean> existing = pending.putIfAbsent(key, task);
+		if (existing != null) {
+			task = existing;
+		} else {
+			try {
+				task.run();
+			} finally {
+				pending.remove(key, task);
+			}
+		}
+		try {
+			return task.get().booleanValue();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for verification", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Forgets a cached verification (e.g. on logout)
+	 * @param nation the nation
+	 * @param checksum the checksum
+	 * @param token the token, or null
+	 */
+	public synchronized void invalidate(String nation, String checksum, String token) {
+		verified.remove(key(nation, checksum, token));
+	}
+
+	private static String key(String nation, String checksum, String token) {
+		return nation.toLowerCase().replace(' ', '_') + '\n' + checksum + '\n' + (token != null ? token : "");
+	}
+
+	/**
+	 * @return the number of verifications answered from the cache
+	 */
+	public synchronized long getCacheHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of verifications sent to the API
+	 */
+	public synchronized long getApiCalls() {
+		return calls;
+	}
+
+	/**
+	 * @return the share of verifications answered from the cache (0 if none were made)
+	 */
+	public synchronized double getCacheHitRatio() {
+		long total = hits + calls;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+}
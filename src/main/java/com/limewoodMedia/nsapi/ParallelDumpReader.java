@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi;
+
+import com.limewoodMedia.nsapi.DumpReader.Callback;
+import com.limewoodMedia.nsapi.DumpReader.Dump;
+import com.limewoodMedia.nsapi.holders.NationData;
+import com.limewoodMedia.nsapi.holders.RegionData;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a data dump on several cores.
+ * The calling thread decompresses the dump and cuts it into chunks of whole records,
+ * which are parsed in parallel with the same tag handlers as {@link DumpReader}.
+ * @author Afforess
+ *
+ */
+public class ParallelDumpReader {
+	public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private final DumpReader reader;
+	private final ExecutorService executor;
+	private final int parallelism;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Creates a parallel dump reader using one thread per available core
+	 * @param api the API instance whose parser settings to use
+	 */
+	public ParallelDumpReader(NationStates api) {
+		this(api, null, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a parallel dump reader parsing on the given executor
+	 * (a ForkJoinPool works as well as a plain thread pool)
+	 * @param api the API instance whose parser settings to use
+	 * @param executor to run the chunk parsing on, or null to create a pool for each read
+	 * @param parallelism the number of chunks to parse at the same time
+	 */
+	public ParallelDumpReader(NationStates api, ExecutorService executor, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+		this.reader = new DumpReader(api);
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the approximate number of bytes of XML in each chunk
+	 */
+	public synchronized int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the approximate number of bytes of XML in each chunk
+	 * @param chunkSize the chunk size
+	 */
+	public synchronized void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Reads every nation in a nations dump
+	 * @param file the dump file (gzipped if the name ends with .gz)
+	 * @param callback to receive the nations - called from the parsing threads if not ordered
+	 * @param ordered true to receive the nations in file order on the calling thread
+	 * @return the number of nations read
+	 * @throws IOException if the file could not be read
+	 */
+	public int readNations(File file, Callback<NationData> callback, boolean ordered) throws IOException {
+		return read(file, DumpReader.NATION_TAG, new DumpFactory<NationData>() {
+			@Override
+			public Dump<NationData> open(InputStream stream, String encoding) throws IOException {
+				return reader.nations(stream, encoding);
+			}
+		}, callback, ordered);
+	}
+
+	/**
+	 * Reads every region in a regions dump
+	 * @param file the dump file (gzipped if the name ends with .gz)
+	 * @param callback to receive the regions - called from the parsing threads if not ordered
+	 * @param ordered true to receive the regions in file order on the calling thread
+	 * @return the number of regions read
+	 * @throws IOException if the file could not be read
+	 */
+	public int readRegions(File file, Callback<RegionData> callback, boolean ordered) throws IOException {
+		return read(file, DumpReader.REGION_TAG, new DumpFactory<RegionData>() {
+			@Override
+			public Dump<RegionData> open(InputStream stream, String encoding) throws IOException {
+				return reader.regions(stream, encoding);
+			}
+		}, callback, ordered);
+	}
+
+	private <T> int read(File file, String recordTag, final DumpFactory<T> factory,
+			final Callback<T> callback, final boolean ordered) throws IOException {
+		InputStream in = DumpReader.openStream(file);
+		ExecutorService pool = executor != null ? executor : Executors.newFixedThreadPool(parallelism);
+		LinkedList<Future<Chunk<T>>> pending = new LinkedList<Future<Chunk<T>>>();
+		int count = 0;
+		try {
+			final ChunkSplitter splitter = new ChunkSplitter(in, recordTag, getChunkSize());
+			byte[] chunk;
+			while ((chunk = splitter.next()) != null) {
+				final byte[] xml = chunk;
+				pending.add(pool.submit(new Callable<Chunk<T>>() {
+					@Override
+					public Chunk<T> call() throws Exception {
+						return parseChunk(factory.open(new ByteArrayInputStream(xml), splitter.getEncoding()),
+								ordered ? null : callback);
+					}
+				}));
+				// Keep a bounded number of chunks in flight, delivering finished ones on the way
+				while (!pending.isEmpty() && (pending.size() > parallelism * 2 || pending.getFirst().isDone())) {
+					count += deliver(pending.removeFirst(), callback);
+				}
+			}
+			while (!pending.isEmpty()) {
+				count += deliver(pending.removeFirst(), callback);
+			}
+			return count;
+		} finally {
+			for (Future<Chunk<T>> f : pending) {
+				f.cancel(true);
+			}
+			if (pool != executor) {
+				pool.shutdownNow();
+			}
+			in.close();
+		}
+	}
+
+	/**
+	 * Parses the records of a chunk, handing them straight to the callback if there is one
+	 */
+	private static <T> Chunk<T> parseChunk(Dump<T> dump, Callback<T> callback) throws IOException {
+		try {
+			Chunk<T> chunk = new Chunk<T>();
+			while (dump.hasNext()) {
+				if (callback != null) {
+					callback.onRecord(dump.next());
+				} else {
+					chunk.records.add(dump.next());
+				}
+			}
+			chunk.count = dump.getCount();
+			return chunk;
+		} finally {
+			dump.close();
+		}
+	}
+
+	private static <T> int deliver(Future<Chunk<T>> future, Callback<T> callback) throws IOException {
+		Chunk<T> chunk;
+		try {
+			chunk = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while parsing dump");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new RuntimeException("Failed to parse dump chunk", cause);
+		}
+		for (T record : chunk.records) {
+			callback.onRecord(record);
+		}
+		return chunk.count;
+	}
+
+	private static interface DumpFactory<T> {
+		public Dump<T> open(InputStream stream, String encoding) throws IOException;
+	}
+
+	/**
+	 * The parsed records of a chunk (empty if they were already delivered)
+	 */
+	private static final class Chunk<T> {
+		final List<T> records = new ArrayList<T>();
+		int count;
+	}
+
+	/**
+	 * Cuts a dump into chunks of whole records.
+	 * Each chunk is wrapped in a root element so it can be parsed as a document of its own.
+	 */
+	static final class ChunkSplitter {
+		private final InputStream in;
+		private final byte[] open;
+		private final byte[] close;
+		private final byte[] rootOpen;
+		private final byte[] rootClose;
+		private final int chunkSize;
+		private byte[] buf;
+		private int len;
+		private boolean eof;
+		private boolean started;
+		private String encoding = "UTF-8";
+
+		ChunkSplitter(InputStream in, String recordTag, int chunkSize) {
+			String tag = recordTag.toUpperCase();
+			this.in = in;
+			this.open = ascii("<" + tag);
+			this.close = ascii("</" + tag + ">");
+			this.rootOpen = ascii("<" + tag + "S>");
+			this.rootClose = ascii("</" + tag + "S>");
+			this.chunkSize = chunkSize;
+			this.buf = new byte[chunkSize + DumpReader.BUFFER_SIZE];
+		}
+
+		/**
+		 * @return the encoding declared by the dump (UTF-8 if none)
+		 */
+		String getEncoding() {
+			return encoding;
+		}
+
+		/**
+		 * @return the next chunk as a standalone XML document, or null at the end of the dump
+		 */
+		byte[] next() throws IOException {
+			if (!started) {
+				if (!skipHeader()) {
+					return null;
+				}
+				started = true;
+			}
+			while (!eof && len < chunkSize) {
+				fill();
+			}
+			int end = lastRecordEnd();
+			while (end < 0 && !eof) {
+				// A single record larger than the chunk size
+				fill();
+				end = lastRecordEnd();
+			}
+			if (end < 0) {
+				return null;
+			}
+			byte[] chunk = new byte[rootOpen.length + end + rootClose.length];
+			System.arraycopy(rootOpen, 0, chunk, 0, rootOpen.length);
+			System.arraycopy(buf, 0, chunk, rootOpen.length, end);
+			System.arraycopy(rootClose, 0, chunk, rootOpen.length + end, rootClose.length);
+			System.arraycopy(buf, end, buf, 0, len - end);
+			len -= end;
+			return chunk;
+		}
+
+		/**
+		 * Drops everything before the first record, picking up the declared encoding
+		 * @return false if the dump has no records
+		 */
+		private boolean skipHeader() throws IOException {
+			int from = 0;
+			while (true) {
+				for (int i = from; i + open.length < len; i++) {
+					if (matches(i, open) && isTagEnd(buf[i + open.length])) {
+						readEncoding(i);
+						System.arraycopy(buf, i, buf, 0, len - i);
+						len -= i;
+						return true;
+					}
+				}
+				if (eof) {
+					return false;
+				}
+				from = Math.max(0, len - open.length);
+				fill();
+			}
+		}
+
+		private void readEncoding(int headerEnd) {
+			String header = new String(buf, 0, headerEnd, ISO_8859_1);
+			int i = header.indexOf("encoding=");
+			if (i > -1 && i + 10 < header.length()) {
+				char quote = header.charAt(i + 9);
+				int end = header.indexOf(quote, i + 10);
+				if (end > -1) {
+					encoding = header.substring(i + 10, end);
+				}
+			}
+		}
+
+		private int lastRecordEnd() {
+			for (int i = len - close.length; i >= 0; i--) {
+				if (matches(i, close)) {
+					return i + close.length;
+				}
+			}
+			return -1;
+		}
+
+		private boolean matches(int offset, byte[] pattern) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (buf[offset + j] != pattern[j]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void fill() throws IOException {
+			if (len == buf.length) {
+				byte[] grown = new byte[buf.length << 1];
+				System.arraycopy(buf, 0, grown, 0, len);
+				buf = grown;
+			}
+			int read = in.read(buf, len, buf.length - len);
+			if (read < 0) {
+				eof = true;
+			} else {
+				len += read;
+			}
+		}
+
+		private static boolean isTagEnd(byte b) {
+			return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\r' || b == '\n';
+		}
+
+		private static byte[] ascii(String str) {
+			byte[] bytes = new byte[str.length()];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = (byte) str.charAt(i);
+			}
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Shares the rate limit of one {@link NationStates} between request classes.
+ * <p>
+ * Every API object has a scheduler ({@link NationStates#getScheduler()}), and every call it makes
+ * goes through it. A caller that acquires a permit for a class makes its next call on that permit;
+ * calls made without a permit belong to the {@link #getDefaultClass() interactive} class and are
+ * refused (as before, with a {@link RateLimitReachedException}) rather than queued, so they never
+ * block. Permits are handed out only while the rate limiter has room beyond the permits already
+ * out and the reserve of the class. Waiting classes with the highest priority are served first;
+ * classes with the same priority share the remaining calls by deficit round robin in proportion to
+ * their weights. Waiters sleep until the limiter frees a call, a permit is released or the lockout
+ * after a 429 ends.
+ * <pre>
+ * RequestScheduler scheduler = api.getScheduler();
+ * RequestScheduler.RequestClass batch = scheduler.addClass("batch", 1, 0, 5);
+ * NationData data = scheduler.call(batch, new Callable&lt;NationData&gt;() { ... });
+ * </pre>
+ * A permit covers one call. When the retry policy repeats the call, the API object takes a new
+ * permit of the same class before each retry; other calls made while holding a used permit are
+ * unscheduled calls.
+ * @author Afforess
+ *
+ */
+public class RequestScheduler {
+	/**
+	 * The calls the background class leaves free for interactive calls
+	 */
+	public static final int DEFAULT_BACKGROUND_RESERVE = 5;
+	/**
+	 * How often a waiter checks again when the limiter has room but the call went to another class
+	 */
+	private static final long RECHECK_INTERVAL = 250L;
+
+	/**
+	 * A class of requests, with its own queue and statistics
+	 */
+	public static final class RequestClass {
+		private final String name;
+		private final double weight;
+		private final int priority;
+		private final int reserve;
+		private final LinkedList<Ticket> waiting = new LinkedList<Ticket>();
+		private double deficit;
+		private long served;
+		private long totalWait;
+		private long maxWait;
+
+		private RequestClass(String name, double weight, int priority, int reserve) {
+			this.name = name;
+			this.weight = weight;
+			this.priority = priority;
+			this.reserve = reserve;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public double getWeight() {
+			return weight;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		public int getReserve() {
+			return reserve;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * A waiting request
+	 */
+	private static final class Ticket {
+		final long queued = System.currentTimeMillis();
+		boolean granted;
+	}
+
+	/**
+	 * A granted permit, held by the thread that acquired it
+	 */
+	private static final class Permit {
+		final RequestClass requestClass;
+		// Nanoseconds spent waiting for the permit, until a call records them
+		long waited;
+		boolean used;
+
+		Permit(RequestClass requestClass, long waited) {
+			this.requestClass = requestClass;
+			this.waited = waited;
+		}
+	}
+
+	private final NationStates api;
+	private final List<RequestClass> classes = new ArrayList<RequestClass>();
+	// Classes grouped by priority, highest first
+	private final List<Level> levels = new ArrayList<Level>();
+	private final ThreadLocal<Permit> permits = new ThreadLocal<Permit>();
+	private final RequestClass interactive;
+	private final RequestClass background;
+	// Permits granted but not yet used or released
+	private int outstanding;
+
+	/**
+	 * Creates the scheduler for the rate limit of an API object
+	 * @param api the API object all requests go to
+	 */
+	RequestScheduler(NationStates api) {
+		this.api = api;
+		this.interactive = addClass("interactive", 1, 1);
+		this.background = addClass("background", 1, 0, DEFAULT_BACKGROUND_RESERVE);
+	}
+
+	/**
+	 * Adds a request class
+	 * @param name the name of the class
+	 * @param weight the share of calls relative to classes of the same priority
+	 * @param priority classes with a higher priority are always served first
+	 * @return the new class
+	 */
+	public RequestClass addClass(String name, double weight, int priority) {
+		return addClass(name, weight, priority, 0);
+	}
+
+	/**
+	 * Adds a request class
+	 * @param name the name of the class
+	 * @param weight the share of calls relative to classes of the same priority
+	 * @param priority classes with a higher priority are always served first
+	 * @param reserve the number of calls in the window the class leaves free for others
+	 * @return the new class
+	 */
+	public synchronized RequestClass addClass(String name, double weight, int priority, int reserve) {
+		if (weight <= 0) {
+			throw new IllegalArgumentException("Weight must be positive");
+		}
+		if (reserve < 0) {
+			throw new IllegalArgumentException("Reserve must not be negative");
+		}
+		RequestClass requestClass = new RequestClass(name, weight, priority, reserve);
+		classes.add(requestClass);
+		int i = 0;
+		while (i < levels.size() && levels.get(i).priority > priority) {
+			i++;
+		}
+		if (i == levels.size() || levels.get(i).priority != priority) {
+			levels.add(i, new Level(priority));
+		}
+		levels.get(i).classes.add(requestClass);
+		return requestClass;
+	}
+
+	/**
+	 * @return the class of calls made without a permit (weight 1, priority 1)
+	 */
+	public RequestClass getDefaultClass() {
+		return interactive;
+	}
+
+	/**
+	 * @return the class the library's crawlers, streams and batches use by default
+	 * (weight 1, priority 0, reserve {@link #DEFAULT_BACKGROUND_RESERVE})
+	 */
+	public RequestClass getBackgroundClass() {
+		return background;
+	}
+
+	/**
+	 * @return the request classes
+	 */
+	public synchronized List<RequestClass> getClasses() {
+		return Collections.unmodifiableList(new ArrayList<RequestClass>(classes));
+	}
+
+	/**
+	 * Waits until a call may be made for a class. Every successful acquire must be followed
+	 * by a {@link #release()} once the call has been made. A thread holds one permit at a time.
+	 * @param requestClass the class of the request
+	 * @throws InterruptedException if interrupted while waiting (no permit is held then)
+	 */
+	public synchronized void acquire(RequestClass requestClass) throws InterruptedException {
+		if (permits.get() != null) {
+			throw new IllegalStateException("This thread already holds a permit");
+		}
+		long start = System.nanoTime();
+		Ticket ticket = new Ticket();
+		requestClass.waiting.add(ticket);
+		try {
+			while (true) {
+				dispatch();
+				if (ticket.granted) {
+					permits.set(new Permit(requestClass, System.nanoTime() - start));
+					return;
+				}
+				// Sleep until the limiter has room for the class; releases and grants wake us sooner.
+				// With room already there we lost to priority or a reserve, so check again shortly
+				long wait = api.getRateLimitWait(outstanding + requestClass.reserve);
+				wait(wait > 0 ? wait : RECHECK_INTERVAL);
+			}
+		} catch (InterruptedException e) {
+			if (ticket.granted) {
+				outstanding--;
+				notifyAll();
+			} else {
+				requestClass.waiting.remove(ticket);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases the permit of this thread after the call has been made (or abandoned)
+	 */
+	public synchronized void release() {
+		Permit permit = permits.get();
+		if (permit == null) {
+			return;
+		}
+		permits.remove();
+		if (!permit.used) {
+			outstanding--;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Acquires a permit, runs a call and releases the permit
+	 * @param requestClass the class of the request
+	 * @param call the call to make
+	 * @return the result of the call
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public <T> T call(RequestClass requestClass, Callable<T> call) throws InterruptedException {
+		acquire(requestClass);
+		try {
+			return call.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Replaces the used permit of this thread with a new one of the same class, before a retry.
+	 * Does nothing if the thread holds no permit or has not used it.
+	 * @throws InterruptedException if interrupted while waiting (no permit is held then)
+	 */
+	synchronized void renew() throws InterruptedException {
+		Permit permit = permits.get();
+		if (permit == null || !permit.used) {
+			return;
+		}
+		release();
+		acquire(permit.requestClass);
+	}
+
+	/**
+	 * @return the time this thread waited for its permit, in nanoseconds, or 0 if it holds none or
+	 * the wait was already taken
+	 */
+	synchronized long takeWait() {
+		Permit permit = permits.get();
+		if (permit == null) {
+			return 0;
+		}
+		long waited = permit.waited;
+		permit.waited = 0;
+		return waited;
+	}
+
+	/**
+	 * Admits one call to the API, on the permit of this thread if it holds an unused one and
+	 * otherwise as an unscheduled call of the default class, which never waits.
+	 * @return true if the call was charged to the rate limiter
+	 */
+	synchronized boolean admit() {
+		Permit permit = permits.get();
+		if (permit != null && !permit.used) {
+			permit.used = true;
+			outstanding--;
+			notifyAll();
+			return api.acquireCall();
+		}
+		int room = api.getRateLimitRemaining() - outstanding;
+		if (room <= interactive.reserve) {
+			return false;
+		}
+		for (Level level : levels) {
+			if (level.priority <= interactive.priority) {
+				break;
+			}
+			for (RequestClass c : level.classes) {
+				if (!c.waiting.isEmpty()) {
+					return false;
+				}
+			}
+		}
+		if (!api.acquireCall()) {
+			return false;
+		}
+		interactive.served++;
+		return true;
+	}
+
+	/**
+	 * @param requestClass a request class
+	 * @return the number of requests waiting in the class
+	 */
+	public synchronized int getQueueDepth(RequestClass requestClass) {
+		return requestClass.waiting.size();
+	}
+
+	/**
+	 * @param requestClass a request class
+	 * @return the number of requests served for the class
+	 */
+	public synchronized long getServed(RequestClass requestClass) {
+		return requestClass.served;
+	}
+
+	/**
+	 * @param requestClass a request class
+	 * @return the average wait of served requests, in milliseconds
+	 */
+	public synchronized long getAverageWait(RequestClass requestClass) {
+		return requestClass.served == 0 ? 0 : requestClass.totalWait / requestClass.served;
+	}
+
+	/**
+	 * @param requestClass a request class
+	 * @return the longest wait of a served request, in milliseconds
+	 */
+	public synchronized long getMaxWait(RequestClass requestClass) {
+		return requestClass.maxWait;
+	}
+
+	/**
+	 * @param requestClass a request class
+	 * @return how long the oldest waiting request has waited, in milliseconds
+	 */
+	public synchronized long getOldestWait(RequestClass requestClass) {
+		Ticket oldest = requestClass.waiting.peek();
+		return oldest == null ? 0 : System.currentTimeMillis() - oldest.queued;
+	}
+
+	/**
+	 * Grants permits while the rate limiter has room for the next class
+	 */
+	private void dispatch() {
+		int room = -1;
+		RequestClass next;
+		while ((next = pick()) != null) {
+			if (room < 0) {
+				room = api.getRateLimitRemaining() - outstanding;
+			}
+			if (room <= next.reserve) {
+				return;
+			}
+			Ticket ticket = next.waiting.removeFirst();
+			next.deficit -= 1;
+			long wait = System.currentTimeMillis() - ticket.queued;
+			next.served++;
+			next.totalWait += wait;
+			next.maxWait = Math.max(next.maxWait, wait);
+			ticket.granted = true;
+			outstanding++;
+			room--;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Picks the class to serve next, by priority and then by deficit round robin
+	 * @return the class, or null if nothing is waiting
+	 */
+	private RequestClass pick() {
+		for (Level level : levels) {
+			RequestClass c = level.pick();
+			if (c != null) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The classes of one priority, served by deficit round robin
+	 */
+	private static final class Level {
+		final int priority;
+		final List<RequestClass> classes = new ArrayList<RequestClass>();
+		int cursor;
+
+		Level(int priority) {
+			this.priority = priority;
+		}
+
+		RequestClass pick() {
+			boolean any = false;
+			for (RequestClass c : classes) {
+				if (c.waiting.isEmpty()) {
+					c.deficit = 0;
+				} else {
+					any = true;
+				}
+			}
+			if (!any) {
+				return null;
+			}
+			while (true) {
+				RequestClass c = classes.get(cursor);
+				if (!c.waiting.isEmpty() && c.deficit >= 1) {
+					return c;
+				}
+				// Move on, giving the next class its quantum
+				cursor = (cursor + 1) % classes.size();
+				RequestClass next = classes.get(cursor);
+				if (!next.waiting.isEmpty()) {
+					next.deficit += next.weight;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi;
+
+import com.limewoodMedia.nsapi.exceptions.RateLimitReachedException;
+import com.limewoodMedia.nsapi.exceptions.UnknownNationException;
+import com.limewoodMedia.nsapi.exceptions.UnknownRegionException;
+import com.limewoodMedia.nsapi.transport.CircuitOpenException;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * When {@link NationStates} retries failed shard queries.
+ * <p>
+ * Only connection and I/O failures and server errors (5xx) are retried, never rate limiting,
+ * unknown nations and regions or an open {@link CircuitOpenException circuit breaker}. Every attempt is charged to the rate limiter, and a refusal ends
+ * the call. A call made on a {@link RequestScheduler} permit waits for a new permit of the same
+ * class before each retry. Attempt n waits a random time between half and all of
+ * {@code min(maxDelay, initialDelay * 2^(n-1))}. Telegrams are never retried.
+ * @author Afforess
+ *
+ */
+public class RetryPolicy {
+	/** A single attempt */
+	public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+	private static final Random random = new Random();
+
+	private final int maxAttempts;
+	private final long initialDelay;
+	private final long maxDelay;
+	private final long deadline;
+
+	/**
+	 * Creates a policy without a deadline
+	 * @param maxAttempts the max number of attempts, including the first
+	 * @param initialDelay the delay before the first retry, in milliseconds
+	 * @param maxDelay the max delay between attempts, in milliseconds
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay) {
+		this(maxAttempts, initialDelay, maxDelay, 0);
+	}
+
+	/**
+	 * Creates a policy
+	 * @param maxAttempts the max number of attempts, including the first
+	 * @param initialDelay the delay before the first retry, in milliseconds
+	 * @param maxDelay the max delay between attempts, in milliseconds
+	 * @param deadline the max total time of a call including retries, in milliseconds (0 for none);
+	 * the wait for a pooled connection, connecting and each read are timed out early to keep to it,
+	 * and reading the body fails once it has passed. A single blocked read can still overrun it,
+	 * by at most the time since its request was sent.
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay, long deadline) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("At least one attempt is needed: " + maxAttempts);
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.deadline = deadline;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public long getInitialDelay() {
+		return initialDelay;
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * @param e the error a call failed with
+	 * @return whether the error is transient
+	 */
+	public boolean isRetryable(RuntimeException e) {
+		if (e instanceof RateLimitReachedException || e instanceof UnknownNationException
+				|| e instanceof UnknownRegionException) {
+			return false;
+		}
+		return e.getCause() instanceof IOException && !(e.getCause() instanceof CircuitOpenException);
+	}
+
+	/**
+	 * @param attempt the attempt that failed, starting at 1
+	 * @param e the error it failed with
+	 * @param deadline when the call must end (System.currentTimeMillis()), or 0 for no deadline
+	 * @return how long to wait before the next attempt, or -1 to give up
+	 */
+	long getDelay(int attempt, RuntimeException e, long deadline) {
+		if (attempt >= maxAttempts || !isRetryable(e)) {
+			return -1;
+		}
+		long delay = Math.min(maxDelay, initialDelay << Math.min(attempt - 1, 30));
+		delay -= (long) (random.nextDouble() * delay / 2);
+		if (deadline != 0 && System.currentTimeMillis() + delay >= deadline) {
+			return -1;
+		}
+		return delay;
+	}
+}
@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi;
+
+import com.limewoodMedia.nsapi.exceptions.RateLimitReachedException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+
+/**
+ * A persistent queue of telegrams, sent at the telegram rate limit instead of the shards API budget.
+ * <p>
+ * Queued telegrams are appended to a file, and the position of the next telegram to send is kept
+ * in a second file ({@code <file>.pos}) that is only advanced once a telegram has been sent (or has
+ * failed for good). The second file also keeps the time of the last telegram, so the pacing
+ * interval holds across restarts. After a crash the queue picks up at the first telegram not known to be done,
+ * so at most one telegram is sent twice. The response of every telegram is classified, and
+ * telegrams refused for rate limiting are tried again after a growing delay.
+ * <p>
+ * The telegram API is part of the NationStates API, so every telegram request also counts against
+ * the shared limit of 50 calls per 30 seconds, on top of the telegram limit. Every telegram is
+ * therefore a call of the API object and takes a permit from the scheduler (so no telegram is
+ * sent during a lockout after a 429). By default the queue has a request class of its own, with
+ * the priority of the background class and the same reserve, so telegrams and their retries never
+ * outrank interactive shard queries nor take the calls left free for them.
+ * @author Afforess
+ *
+ */
+public class TelegramQueue {
+	/** The telegram rate limit for recruitment telegrams (one per 180 seconds) */
+	public static final long RECRUITMENT_INTERVAL = 180000L;
+	/** The telegram rate limit for other telegrams (one per 30 seconds) */
+	public static final long NON_RECRUITMENT_INTERVAL = 30000L;
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	/** The longest delay before retrying a rate limited telegram (the length of a 429 lockout) */
+	public static final long MAX_RATE_LIMIT_BACKOFF = 900000L;
+	/** The calls the telegram class leaves free for interactive calls */
+	public static final int DEFAULT_RESERVE = RequestScheduler.DEFAULT_BACKGROUND_RESERVE;
+	private static final int LINE_BUFFER_SIZE = 256;
+
+	/**
+	 * A queued telegram
+	 */
+	public static class Telegram {
+		public final String clientKey;
+		public final String tgid;
+		public final String secretKey;
+		public final String nation;
+
+		public Telegram(String clientKey, String tgid, String secretKey, String nation) {
+			this.clientKey = clientKey;
+			this.tgid = tgid;
+			this.secretKey = secretKey;
+			this.nation = nation;
+		}
+
+		@Override
+		public String toString() {
+			return "Telegram " + tgid + " to " + nation;
+		}
+	}
+
+	/**
+	 * The outcome of sending a telegram
+	 */
+	public static enum Result {
+		/** Accepted by the telegram API */
+		QUEUED(false),
+		/** Refused because of the rate limit, will be retried after twice the previous delay */
+		RATE_LIMITED(true),
+		/** The client key is not registered */
+		CLIENT_NOT_REGISTERED(false),
+		/** The secret key does not match the telegram */
+		INCORRECT_SECRET_KEY(false),
+		/** The telegram does not exist */
+		UNKNOWN_TELEGRAM(false),
+		/** The recipient does not exist */
+		UNKNOWN_NATION(false),
+		/** The request failed, will be retried up to the max number of attempts */
+		ERROR(true),
+		/** Any other response */
+		UNKNOWN(false);
+
+		private final boolean retryable;
+
+		private Result(boolean retryable) {
+			this.retryable = retryable;
+		}
+
+		/**
+		 * @return whether the telegram is tried again after this result
+		 */
+		public boolean isRetryable() {
+			return retryable;
+		}
+
+		/**
+		 * Classifies a telegram API response
+		 * @param response the response text
+		 * @return the result
+		 */
+		public static Result classify(String response) {
+			String text = response == null ? "" : response.trim().toLowerCase();
+			if (text.equals("queued")) {
+				return QUEUED;
+			} else if (text.contains("rate limit")) {
+				return RATE_LIMITED;
+			} else if (text.contains("not registered")) {
+				return CLIENT_NOT_REGISTERED;
+			} else if (text.contains("secret key")) {
+				return INCORRECT_SECRET_KEY;
+			} else if (text.contains("telegram")) {
+				return UNKNOWN_TELEGRAM;
+			} else if (text.contains("nation")) {
+				return UNKNOWN_NATION;
+			}
+			return UNKNOWN;
+		}
+	}
+
+	/**
+	 * Receives the outcome of every telegram
+	 */
+	public static interface Listener {
+		/**
+		 * @param telegram the telegram
+		 * @param result the classified result
+		 * @param response the response text, or the error message
+		 */
+		public void onResult(Telegram telegram, Result result, String response);
+	}
+
+	private final NationStates api;
+	private final RandomAccessFile queue;
+	private final RandomAccessFile position;
+	private long next;
+	private int size;
+	private long interval = RECRUITMENT_INTERVAL;
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private long lastSent;
+	private Listener listener;
+	private RequestScheduler.RequestClass requestClass;
+	private Thread thread;
+	// The last thread started, which may still be finishing a telegram after stop()
+	private Thread sender;
+
+	/**
+	 * Opens (or creates) a telegram queue
+	 * @param api the API to send with
+	 * @param file the queue file
+	 * @throws IOException if the queue could not be opened
+	 */
+	public TelegramQueue(NationStates api, File file) throws IOException {
+		this.api = api;
+		this.requestClass = api.getScheduler().addClass("telegrams", 1,
+				api.getScheduler().getBackgroundClass().getPriority(), DEFAULT_RESERVE);
+		queue = new RandomAccessFile(file, "rw");
+		position = new RandomAccessFile(new File(file.getPath() + ".pos"), "rw");
+		next = position.length() >= 8 ? position.readLong() : 0;
+		lastSent = position.length() >= 16 ? position.readLong() : 0;
+		if (next > queue.length()) {
+			// Crashed after emptying the queue
+			next = 0;
+		}
+		// Count the pending telegrams, dropping a line cut off by a crash
+		long end = next;
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			long offset = 0;
+			int b;
+			while ((b = in.read()) != -1) {
+				offset++;
+				if (b == '\n') {
+					if (offset > next) {
+						size++;
+					}
+					end = Math.max(end, offset);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		queue.setLength(end);
+	}
+
+	/**
+	 * @param interval the time between telegrams, in milliseconds
+	 */
+	public synchronized void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	public synchronized long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @param maxAttempts how many times a telegram is tried when sending fails
+	 */
+	public synchronized void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	public synchronized void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the class telegrams are scheduled in - default is a "telegrams" class of the queue's own,
+	 * with the background priority and a reserve of {@link #DEFAULT_RESERVE}
+	 * @param requestClass a class of the API object's scheduler
+	 */
+	public synchronized void setRequestClass(RequestScheduler.RequestClass requestClass) {
+		this.requestClass = requestClass;
+	}
+
+	public synchronized RequestScheduler.RequestClass getRequestClass() {
+		return requestClass;
+	}
+
+	/**
+	 * @return the number of telegrams waiting to be sent
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Queues a telegram
+	 * @param telegram the telegram
+	 * @throws IOException if the telegram could not be written
+	 */
+	public synchronized void add(Telegram telegram) throws IOException {
+		queue.seek(queue.length());
+		write(telegram);
+		queue.getFD().sync();
+		notifyAll();
+	}
+
+	/**
+	 * Queues the same telegram to several nations
+	 * @param clientKey the client key
+	 * @param tgid the telegram id
+	 * @param secretKey the secret key of the telegram
+	 * @param nations the recipients
+	 * @throws IOException if the telegrams could not be written
+	 */
+	public synchronized void addAll(String clientKey, String tgid, String secretKey, Collection<String> nations) throws IOException {
+		queue.seek(queue.length());
+		for (String nation : nations) {
+			write(new Telegram(clientKey, tgid, secretKey, nation));
+		}
+		queue.getFD().sync();
+		notifyAll();
+	}
+
+	private void write(Telegram telegram) throws IOException {
+		StringBuilder line = new StringBuilder();
+		line.append(check(telegram.clientKey)).append('\t').append(check(telegram.tgid)).append('\t')
+				.append(check(telegram.secretKey)).append('\t').append(check(telegram.nation)).append('\n');
+		queue.write(line.toString().getBytes("UTF-8"));
+		size++;
+	}
+
+	private static String check(String field) {
+		if (field == null || field.indexOf('\t') >= 0 || field.indexOf('\n') >= 0) {
+			throw new IllegalArgumentException("Invalid telegram field: " + field);
+		}
+		return field;
+	}
+
+	/**
+	 * Starts sending queued telegrams on a background thread
+	 * @throws IllegalArgumentException if no User-Agent was set
+	 * @throws IllegalStateException if the thread of a previous start is still finishing a telegram
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		checkUserAgent();
+		if (sender != null && sender.isAlive()) {
+			// It would send the head telegram a second time
+			throw new IllegalStateException("The telegram thread has not stopped yet");
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (sendNext(true)) {
+						// Keep going
+					}
+				} catch (InterruptedException e) {
+					// Stopped
+				} catch (IOException e) {
+					throw new RuntimeException("IOException reading telegram queue", e);
+				}
+			}
+		}, "TelegramQueue");
+		thread.setDaemon(true);
+		thread.start();
+		sender = thread;
+	}
+
+	/**
+	 * Stops the background thread and waits for it to finish the current telegram.
+	 * If interrupted while waiting, returns with the interrupt flag set.
+	 */
+	public void stop() {
+		try {
+			join(detach());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized Thread detach() {
+		Thread thread = this.thread;
+		if (thread != null) {
+			thread.interrupt();
+			this.thread = null;
+			notifyAll();
+		}
+		return thread;
+	}
+
+	/**
+	 * @return true on a background thread that has been stopped, even if a call swallowed the interrupt
+	 */
+	private synchronized boolean detached() {
+		Thread current = Thread.currentThread();
+		return current == sender && current != thread;
+	}
+
+	/**
+	 * Waits for a stopped thread, without holding our monitor, which the thread needs to finish
+	 */
+	private static void join(Thread thread) throws InterruptedException {
+		if (thread != null && thread != Thread.currentThread()) {
+			thread.join();
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return thread != null;
+	}
+
+	/**
+	 * Stops the background thread, waits for it to finish the current telegram and closes the queue files
+	 * @throws IOException if the files could not be closed, or if interrupted while waiting (the files are left open then)
+	 */
+	public void close() throws IOException {
+		try {
+			join(detach());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the telegram thread");
+		}
+		synchronized (this) {
+			queue.close();
+			position.close();
+		}
+	}
+
+	/**
+	 * Sends the next telegram, waiting for the pacing interval first.
+	 * Do not call this while the queue has been started.
+	 * @param block whether to wait for a telegram if the queue is empty
+	 * @return false if the queue was empty (and block was false)
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws IOException if the queue could not be read or advanced
+	 * @throws IllegalArgumentException if no User-Agent was set (the telegram stays queued)
+	 */
+	public boolean sendNext(boolean block) throws InterruptedException, IOException {
+		checkUserAgent();
+		Telegram telegram;
+		RequestScheduler.RequestClass requestClass;
+		synchronized (this) {
+			while (size == 0 || detached()) {
+				if (!block || detached()) {
+					return false;
+				}
+				wait();
+			}
+			telegram = peek();
+			requestClass = this.requestClass;
+		}
+		RequestScheduler scheduler = api.getScheduler();
+		int errors = 0;
+		long backoff = 0;
+		while (true) {
+			pace(backoff);
+			Result result;
+			String response;
+			// Waits out a full window or a lockout
+			scheduler.acquire(requestClass);
+			try {
+				response = api.sendTelegram(telegram.clientKey, telegram.secretKey, telegram.tgid, telegram.nation);
+				result = Result.classify(response);
+			} catch (RateLimitReachedException e) {
+				// The API refused all calls (429), or another process used up a shared limit
+				response = "Rate limit reached";
+				result = Result.RATE_LIMITED;
+			} catch (RuntimeException e) {
+				response = e.getMessage();
+				result = Result.ERROR;
+			} finally {
+				scheduler.release();
+			}
+			Listener listener;
+			synchronized (this) {
+				lastSent = System.currentTimeMillis();
+				listener = this.listener;
+				savePosition();
+			}
+			if (listener != null) {
+				listener.onResult(telegram, result, response);
+			}
+			if (result == Result.RATE_LIMITED) {
+				backoff = Math.min(MAX_RATE_LIMIT_BACKOFF, backoff == 0 ? getInterval() * 2 : backoff * 2);
+			} else if (result != Result.ERROR || ++errors >= maxAttempts) {
+				break;
+			}
+		}
+		advance();
+		return true;
+	}
+
+	private void checkUserAgent() {
+		if (api.getUserAgent() == null) {
+			throw new IllegalArgumentException("No User-Agent set! Use setUserAgent(String).");
+		}
+	}
+
+	/**
+	 * Waits until the pacing interval (or a longer back off) has passed since the last telegram
+	 */
+	private void pace(long backoff) throws InterruptedException {
+		long wait;
+		synchronized (this) {
+			wait = lastSent + Math.max(interval, backoff) - System.currentTimeMillis();
+		}
+		if (wait > 0) {
+			Thread.sleep(wait);
+		}
+	}
+
+	private Telegram peek() throws IOException {
+		queue.seek(next);
+		String[] fields = readLine().split("\t", 4);
+		return new Telegram(fields[0], fields[1], fields[2], fields[3]);
+	}
+
+	/**
+	 * Marks the head telegram as done, emptying the files once everything has been sent
+	 */
+	private synchronized void advance() throws IOException {
+		queue.seek(next);
+		readLine();
+		next = queue.getFilePointer();
+		size--;
+		if (size == 0) {
+			queue.setLength(0);
+			next = 0;
+		}
+		savePosition();
+	}
+
+	/**
+	 * Writes the position of the next telegram and the time of the last one
+	 */
+	private void savePosition() throws IOException {
+		position.seek(0);
+		position.writeLong(next);
+		position.writeLong(lastSent);
+		position.getFD().sync();
+	}
+
+	/**
+	 * Reads a line from the queue file a block at a time, leaving the file pointer after it
+	 */
+	private String readLine() throws IOException {
+		long start = queue.getFilePointer();
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		byte[] buf = new byte[LINE_BUFFER_SIZE];
+		int read;
+		while ((read = queue.read(buf)) != -1) {
+			for (int i = 0; i < read; i++) {
+				if (buf[i] == '\n') {
+					line.write(buf, 0, i);
+					queue.seek(start + line.size() + 1);
+					return line.toString("UTF-8");
+				}
+			}
+			line.write(buf, 0, read);
+		}
+		// Nothing, or a line cut off by a crash
+		return null;
+	}
+}
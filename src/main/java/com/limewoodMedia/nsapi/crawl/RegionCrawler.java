@@ -0,0 +1,623 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.crawl;
+
+import com.limewoodMedia.nsapi.NationStates;
+import com.limewoodMedia.nsapi.RequestScheduler;
+import com.limewoodMedia.nsapi.exceptions.RateLimitReachedException;
+import com.limewoodMedia.nsapi.exceptions.UnknownNationException;
+import com.limewoodMedia.nsapi.exceptions.UnknownRegionException;
+import com.limewoodMedia.nsapi.holders.NationData;
+import com.limewoodMedia.nsapi.holders.RegionData;
+import com.limewoodMedia.nsapi.holders.WorldData;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Crawls the nations of one or more regions through the API object's request scheduler.
+ * <p>
+ * Regions are expanded to their nations, and every nation is fetched in priority order. A task
+ * becomes due {@code refreshInterval / weight} after its last fetch, and due tasks are taken
+ * earliest first (heavier first on ties), so stale and heavily weighted nations go first.
+ * Tasks never fetched are due at once. Every fetch waits for a permit of the crawler's request
+ * class (the scheduler's background class by default), so the crawler sleeps through a full
+ * window or a lockout; rate limit errors put the task back instead of ending the crawl.
+ * When a region is expanded again, nations it listed before but no longer does are dropped,
+ * unless they were added with {@link #addNation(String, double)} or another region lists them.
+ * <p>
+ * With a checkpoint file, changes to the queue and the fetch times are appended to it as the
+ * crawl goes (and it is compacted from time to time), and it is loaded again when a crawler is
+ * created, so a crashed crawl resumes where it stopped.
+ * @author Afforess
+ *
+ */
+public class RegionCrawler {
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 25;
+	private static final long RETRY_DELAY = 5000L;
+	private static final int MIN_COMPACT_LINES = 1000;
+
+	/**
+	 * Receives crawl results
+	 */
+	public static interface Listener {
+		/**
+		 * Called after a region has been expanded
+		 * @param region the region data (with the nations shard)
+		 */
+		public void onRegion(RegionData region);
+
+		/**
+		 * Called for every fetched nation
+		 * @param nation the nation data
+		 */
+		public void onNation(NationData nation);
+
+		/**
+		 * Called when a fetch failed
+		 * @param name the nation or region name
+		 * @param region true if the name is a region
+		 * @param e the error
+		 * @param willRetry whether the fetch will be tried again
+		 */
+		public void onError(String name, boolean region, Exception e, boolean willRetry);
+	}
+
+	private final NationStates api;
+	private final Listener listener;
+	private final File checkpoint;
+	private final Map<String, Task> tasks = new HashMap<String, Task>();
+	private final PriorityQueue<Task> queue = new PriorityQueue<Task>();
+	// Tasks changed (or removed) since the last checkpoint, by key
+	private final Map<String, Task> dirty = new LinkedHashMap<String, Task>();
+	private NationData.Shards[] shards = new NationData.Shards[0];
+	private RequestScheduler.RequestClass requestClass;
+	private long refreshInterval;
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	private int sinceCheckpoint;
+	// Lines in the checkpoint file, or -1 if it has to be rewritten
+	private int checkpointLines = -1;
+	private volatile boolean stopped;
+
+	/**
+	 * Creates a crawler without a checkpoint
+	 * @param api the API to fetch with
+	 * @param listener to receive results
+	 */
+	public RegionCrawler(NationStates api, Listener listener) {
+		this.api = api;
+		this.listener = listener;
+		this.checkpoint = null;
+		this.requestClass = api.getScheduler().getBackgroundClass();
+	}
+
+	/**
+	 * Creates a crawler that saves its progress to a checkpoint file, resuming from it if it exists
+	 * @param api the API to fetch with
+	 * @param listener to receive results
+	 * @param checkpoint the checkpoint file
+	 * @throws IOException if the checkpoint exists but could not be read
+	 */
+	public RegionCrawler(NationStates api, Listener listener, File checkpoint) throws IOException {
+		this.api = api;
+		this.listener = listener;
+		this.checkpoint = checkpoint;
+		this.requestClass = api.getScheduler().getBackgroundClass();
+		if (checkpoint.exists()) {
+			load();
+		}
+	}
+
+	/**
+	 * @param shards the shards to fetch for every nation
+	 */
+	public synchronized void setShards(NationData.Shards... shards) {
+		this.shards = shards;
+	}
+
+	/**
+	 * Sets the class fetches are scheduled in - default is the scheduler's background class
+	 * @param requestClass a class of the API object's scheduler
+	 */
+	public synchronized void setRequestClass(RequestScheduler.RequestClass requestClass) {
+		this.requestClass = requestClass;
+	}
+
+	public synchronized RequestScheduler.RequestClass getRequestClass() {
+		return requestClass;
+	}
+
+	/**
+	 * Sets how often nations are refetched. With a refresh interval, fetched tasks are queued
+	 * again and {@link #crawl()} runs until {@link #stop()} is called.
+	 * @param refreshInterval the interval for weight 1, in milliseconds, or 0 to fetch everything once
+	 */
+	public synchronized void setRefreshInterval(long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * @param maxAttempts how many times a failing fetch is tried
+	 */
+	public synchronized void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @param checkpointInterval the number of fetches between checkpoints
+	 */
+	public synchronized void setCheckpointInterval(int checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Queues a region to be expanded to its nations
+	 * @param region the region name
+	 * @param weight the weight of the region and its nations
+	 */
+	public synchronized void addRegion(String region, double weight) {
+		add(region, true, weight, null);
+	}
+
+	/**
+	 * Queues all regions of a regions by tag result
+	 * @param world the world data, with the REGIONS_BY_TAG shard
+	 * @param weight the weight of the regions and their nations
+	 */
+	public synchronized void addRegions(WorldData world, double weight) {
+		if (world.regionsByTag != null) {
+			for (String region : world.regionsByTag) {
+				if (region.length() > 0) {
+					add(region, true, weight, null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues a single nation, which is kept even if it leaves its region
+	 * @param nation the nation name
+	 * @param weight the weight of the nation
+	 */
+	public synchronized void addNation(String nation, double weight) {
+		add(nation, false, weight, null);
+	}
+
+	/**
+	 * @param from the key of the region listing the nation, or null if added explicitly
+	 */
+	private void add(String name, boolean region, double weight, String from) {
+		if (weight <= 0) {
+			throw new IllegalArgumentException("Weight must be positive");
+		}
+		String key = key(name, region);
+		Task task = tasks.get(key);
+		if (task == null) {
+			task = new Task(name, region, weight);
+			task.from = from;
+			tasks.put(key, task);
+			queue.add(task);
+		} else {
+			if ((from == null || task.from != null) && !equal(from, task.from)) {
+				task.from = from;
+				dirty.put(key, task);
+			}
+			if (weight > task.weight) {
+				dirty.put(key, task);
+				// An in-flight task is queued again when its fetch is done
+				if (task.inFlight) {
+					task.weight = weight;
+				} else {
+					queue.remove(task);
+					task.weight = weight;
+					task.schedule(refreshInterval);
+					queue.add(task);
+					notifyAll();
+				}
+			}
+			return;
+		}
+		dirty.put(key, task);
+		notifyAll();
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private void remove(Task task) {
+		String key = key(task.name, task.region);
+		if (tasks.get(key) != task) {
+			return;
+		}
+		tasks.remove(key);
+		queue.remove(task);
+		task.removed = true;
+		dirty.put(key, task);
+	}
+
+	/**
+	 * @return the number of queued tasks
+	 */
+	public synchronized int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * Stops a running crawl after the current fetch
+	 */
+	public void stop() {
+		stopped = true;
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Crawls until the queue is empty (or, with a refresh interval, until stopped)
+	 * @return the number of nations fetched
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws IOException if the checkpoint could not be written
+	 */
+	public int crawl() throws InterruptedException, IOException {
+		stopped = false;
+		RequestScheduler scheduler = api.getScheduler();
+		int fetched = 0;
+		while (!stopped) {
+			RequestScheduler.RequestClass requestClass;
+			synchronized (this) {
+				Task task = queue.peek();
+				if (task == null) {
+					break;
+				}
+				long wait = task.due - System.currentTimeMillis();
+				if (wait > 0) {
+					// Adding a task or stopping wakes us
+					wait(wait);
+					continue;
+				}
+				requestClass = this.requestClass;
+			}
+			scheduler.acquire(requestClass);
+			try {
+				Task task;
+				synchronized (this) {
+					task = queue.peek();
+					if (stopped || task == null || task.due > System.currentTimeMillis()) {
+						continue;
+					}
+					queue.poll();
+					task.inFlight = true;
+				}
+				if (fetch(task)) {
+					if (!task.region) {
+						fetched++;
+					}
+				}
+			} finally {
+				scheduler.release();
+			}
+			synchronized (this) {
+				if (++sinceCheckpoint >= checkpointInterval) {
+					save();
+				}
+			}
+		}
+		synchronized (this) {
+			save();
+		}
+		return fetched;
+	}
+
+	/**
+	 * Fetches one task and queues it again if needed
+	 * @return true if the fetch succeeded
+	 */
+	private boolean fetch(Task task) {
+		try {
+			if (task.region) {
+				RegionData data = api.getRegionInfo(task.name, RegionData.Shards.NATIONS);
+				synchronized (this) {
+					if (data.nations != null) {
+						expand(task, data.nations);
+					}
+				}
+				listener.onRegion(data);
+			} else {
+				NationData.Shards[] shards;
+				synchronized (this) {
+					shards = this.shards;
+				}
+				listener.onNation(api.getNationInfo(task.name, shards));
+			}
+			synchronized (this) {
+				task.inFlight = false;
+				task.last = System.currentTimeMillis();
+				task.attempts = 0;
+				if (refreshInterval > 0) {
+					task.schedule(refreshInterval);
+					requeue(task);
+				} else {
+					remove(task);
+				}
+			}
+			return true;
+		} catch (RateLimitReachedException e) {
+			// Not the task's fault, put it back
+			synchronized (this) {
+				task.inFlight = false;
+				requeue(task);
+			}
+		} catch (UnknownNationException e) {
+			drop(task, e);
+		} catch (UnknownRegionException e) {
+			drop(task, e);
+		} catch (RuntimeException e) {
+			boolean retry;
+			synchronized (this) {
+				task.inFlight = false;
+				retry = ++task.attempts < maxAttempts;
+				if (retry) {
+					task.due = System.currentTimeMillis() + RETRY_DELAY * task.attempts;
+					requeue(task);
+				} else {
+					remove(task);
+				}
+			}
+			listener.onError(task.name, task.region, e, retry);
+		}
+		return false;
+	}
+
+	/**
+	 * Queues the nations of a region and drops the ones it no longer lists
+	 */
+	private void expand(Task region, String[] nations) {
+		String regionKey = key(region.name, true);
+		Set<String> members = new HashSet<String>();
+		for (String nation : nations) {
+			if (nation.length() > 0) {
+				members.add(key(nation, false));
+				add(nation, false, region.weight, regionKey);
+			}
+		}
+		if (region.members != null) {
+			for (String key : region.members) {
+				Task nation = tasks.get(key);
+				if (!members.contains(key) && nation != null && regionKey.equals(nation.from)) {
+					remove(nation);
+				}
+			}
+		}
+		region.members = members;
+	}
+
+	/**
+	 * Queues a task again, unless it was removed while in flight
+	 */
+	private void requeue(Task task) {
+		if (task.removed) {
+			return;
+		}
+		queue.add(task);
+		dirty.put(key(task.name, task.region), task);
+	}
+
+	private void drop(Task task, Exception e) {
+		synchronized (this) {
+			task.inFlight = false;
+			remove(task);
+		}
+		listener.onError(task.name, task.region, e, false);
+	}
+
+	private static String key(String name, boolean region) {
+		return (region ? "r:" : "n:") + name.toLowerCase().replace(' ', '_');
+	}
+
+	/**
+	 * Appends the tasks changed since the last checkpoint, or rewrites the checkpoint once the
+	 * appended changes outnumber the tasks
+	 */
+	private void save() throws IOException {
+		sinceCheckpoint = 0;
+		if (checkpoint == null) {
+			dirty.clear();
+			return;
+		}
+		if (checkpointLines < 0 || checkpointLines + dirty.size() > Math.max(MIN_COMPACT_LINES, tasks.size() * 2)) {
+			compact();
+			return;
+		}
+		if (dirty.isEmpty()) {
+			return;
+		}
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(checkpoint, true), "UTF-8"));
+		try {
+			for (Task task : dirty.values()) {
+				write(out, task);
+			}
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			// A torn line would spoil the next append, so start over
+			checkpointLines = -1;
+			throw new IOException("Failed to write checkpoint " + checkpoint);
+		}
+		checkpointLines += dirty.size();
+		dirty.clear();
+	}
+
+	/**
+	 * Writes the checkpoint, replacing the old one only once the new one is complete
+	 */
+	private void compact() throws IOException {
+		File tmp = new File(checkpoint.getPath() + ".tmp");
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+		try {
+			for (Task task : tasks.values()) {
+				write(out, task);
+			}
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Failed to write checkpoint " + tmp);
+		}
+		if (!tmp.renameTo(checkpoint) && !(checkpoint.delete() && tmp.renameTo(checkpoint))) {
+			throw new IOException("Failed to replace checkpoint " + checkpoint);
+		}
+		checkpointLines = tasks.size();
+		dirty.clear();
+	}
+
+	/**
+	 * Writes a task as kind, weight, last fetch, due time, listing region and name - the kind
+	 * is prefixed with '-' for a removed task
+	 */
+	private static void write(PrintWriter out, Task task) {
+		if (task.removed) {
+			out.print('-');
+		}
+		out.print(task.region ? 'R' : 'N');
+		out.print('\t');
+		out.print(task.weight);
+		out.print('\t');
+		out.print(task.last);
+		out.print('\t');
+		out.print(task.due);
+		out.print('\t');
+		out.print(task.from == null ? "" : task.from);
+		out.print('\t');
+		out.println(task.name);
+	}
+
+	private void load() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(checkpoint), "UTF-8"));
+		try {
+			String line;
+			String corrupt = null;
+			while ((line = in.readLine()) != null) {
+				if (corrupt != null) {
+					throw new IOException("Corrupt checkpoint " + checkpoint + ": " + corrupt);
+				}
+				// Checkpoints written before the listing region was recorded have five fields
+				String[] parts = line.split("\t", 6);
+				if (parts.length < 5) {
+					// Only the last line may be torn by a crash
+					corrupt = line;
+					continue;
+				}
+				String name = parts[parts.length - 1];
+				boolean region = parts[0].endsWith("R");
+				String key = key(name, region);
+				if (parts[0].startsWith("-")) {
+					tasks.remove(key);
+					continue;
+				}
+				Task task = new Task(name, region, 1);
+				try {
+					task.weight = Double.parseDouble(parts[1]);
+					task.last = Long.parseLong(parts[2]);
+					task.due = Long.parseLong(parts[3]);
+				} catch (NumberFormatException e) {
+					corrupt = e.getMessage();
+					continue;
+				}
+				task.from = parts.length == 6 && parts[4].length() > 0 ? parts[4] : null;
+				tasks.put(key, task);
+			}
+		} finally {
+			in.close();
+		}
+		for (Map.Entry<String, Task> entry : tasks.entrySet()) {
+			Task task = entry.getValue();
+			queue.add(task);
+			Task region = task.from == null ? null : tasks.get(task.from);
+			if (region != null) {
+				if (region.members == null) {
+					region.members = new HashSet<String>();
+				}
+				region.members.add(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * A queued region or nation
+	 */
+	private static final class Task implements Comparable<Task> {
+		final String name;
+		final boolean region;
+		double weight;
+		long last;
+		long due;
+		int attempts;
+		// The key of the region that listed the nation, or null if added explicitly
+		String from;
+		// The keys of the nations the region listed when last expanded
+		Set<String> members;
+		boolean inFlight;
+		boolean removed;
+
+		Task(String name, boolean region, double weight) {
+			this.name = name;
+			this.region = region;
+			this.weight = weight;
+		}
+
+		void schedule(long refreshInterval) {
+			due = last == 0 ? 0 : last + (long) (refreshInterval / weight);
+		}
+
+		@Override
+		public int compareTo(Task o) {
+			if (due != o.due) {
+				return due < o.due ? -1 : 1;
+			}
+			if (weight != o.weight) {
+				return weight > o.weight ? -1 : 1;
+			}
+			// Expand regions before fetching nations
+			if (region != o.region) {
+				return region ? -1 : 1;
+			}
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.happenings;
+
+import com.limewoodMedia.nsapi.holders.HappeningData.EventHappening;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Incrementally counts happenings per type and region at several time resolutions.
+ * <p>
+ * Every counter set holds one ring buffer per {@link Resolution}. Recording an event touches
+ * one bucket per resolution; a bucket that belongs to an older period is cleared when it is
+ * reused. Region counters are kept for at most {@code maxRegions} regions, dropping the least
+ * recently used. World-wide counters are always kept.
+ * <p>
+ * A region costs about 1.5 KB plus 0.6 KB for every event type seen in it, so the default of
+ * {@value #DEFAULT_MAX_REGIONS} regions typically takes 10-25 MB (about 85 MB if every region
+ * saw every type).
+ * <p>
+ * The aggregator is a {@link HappeningStream.Subscriber}, so it can be fed directly by a stream.
+ * @author Afforess
+ *
+ */
+public class HappeningAggregator implements HappeningStream.Subscriber {
+	public static final int DEFAULT_MAX_REGIONS = 5000;
+	private static final int TYPES = HappeningEvent.Type.values().length;
+
+	/**
+	 * Bucket resolutions
+	 */
+	public static enum Resolution {
+		/** 60 one minute buckets */
+		MINUTE(60, 60),
+		/** 48 one hour buckets */
+		HOUR(60 * 60, 48),
+		/** 30 one day buckets */
+		DAY(24 * 60 * 60, 30);
+
+		private final long seconds;
+		private final int buckets;
+
+		private Resolution(long seconds, int buckets) {
+			this.seconds = seconds;
+			this.buckets = buckets;
+		}
+
+		/**
+		 * @return the length of a bucket, in seconds
+		 */
+		public long getSeconds() {
+			return seconds;
+		}
+
+		/**
+		 * @return the number of buckets kept
+		 */
+		public int getBuckets() {
+			return buckets;
+		}
+	}
+
+	private final HappeningDecoder decoder = HappeningDecoder.DEFAULT;
+	private final Counters world = new Counters();
+	private final Map<String, Counters> regions;
+
+	/**
+	 * Creates an aggregator that keeps counters for up to {@value #DEFAULT_MAX_REGIONS} regions
+	 */
+	public HappeningAggregator() {
+		this(DEFAULT_MAX_REGIONS);
+	}
+
+	/**
+	 * Creates an aggregator
+	 * @param maxRegions the maximum number of regions to keep counters for
+	 */
+	public HappeningAggregator(final int maxRegions) {
+		regions = new LinkedHashMap<String, Counters>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Counters> eldest) {
+				return size() > maxRegions;
+			}
+		};
+	}
+
+	@Override
+	public void onHappening(EventHappening happening) {
+		add(decoder.decode(happening));
+	}
+
+	/**
+	 * Records an event in the world counters and the counters of the regions it involves
+	 * @param event the decoded event (timestamp in seconds)
+	 */
+	public synchronized void add(HappeningEvent event) {
+		int type = event.type.ordinal();
+		world.add(type, event.timestamp);
+		if (event.region != null) {
+			region(event.region).add(type, event.timestamp);
+		}
+		if (event.targetRegion != null && !event.targetRegion.equals(event.region)) {
+			region(event.targetRegion).add(type, event.timestamp);
+		}
+	}
+
+	private Counters region(String region) {
+		Counters counters = regions.get(region);
+		if (counters == null) {
+			counters = new Counters();
+			regions.put(region, counters);
+		}
+		return counters;
+	}
+
+	/**
+	 * Gets the counts for the latest buckets, oldest first
+	 * @param region the region, or null for the whole world
+	 * @param type the event type
+	 * @param resolution the bucket resolution
+	 * @param now the current time, in seconds
+	 * @return one count per bucket of the resolution, the last one being the current bucket
+	 */
+	public synchronized long[] getSeries(String region, HappeningEvent.Type type, Resolution resolution, long now) {
+		long[] series = new long[resolution.buckets];
+		Counters counters = counters(region);
+		if (counters != null) {
+			long period = now / resolution.seconds;
+			for (int i = 0; i < series.length; i++) {
+				series[i] = counters.get(resolution, type.ordinal(), period - series.length + 1 + i);
+			}
+		}
+		return series;
+	}
+
+	/**
+	 * Sums the counts of the latest buckets
+	 * @param region the region, or null for the whole world
+	 * @param type the event type
+	 * @param resolution the bucket resolution
+	 * @param now the current time, in seconds
+	 * @param buckets the number of buckets to sum, including the current one
+	 * @return the number of events
+	 */
+	public synchronized long getCount(String region, HappeningEvent.Type type, Resolution resolution, long now, int buckets) {
+		Counters counters = counters(region);
+		if (counters == null) {
+			return 0;
+		}
+		long period = now / resolution.seconds;
+		long count = 0;
+		for (int i = 0; i < Math.min(buckets, resolution.buckets); i++) {
+			count += counters.get(resolution, type.ordinal(), period - i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of regions with counters
+	 */
+	public synchronized int getRegionCount() {
+		return regions.size();
+	}
+
+	private Counters counters(String region) {
+		return region == null ? world : regions.get(region);
+	}
+
+	/**
+	 * Ring buffers for all resolutions. The buckets of a type are only allocated once an event of
+	 * that type is seen.
+	 */
+	private static final class Counters {
+		private static final Resolution[] RESOLUTIONS = Resolution.values();
+		/** Per resolution: the period each bucket currently holds */
+		final int[][] periods = new int[RESOLUTIONS.length][];
+		/** Per resolution and type: the bucket counts, or null if the type was never seen */
+		final int[][][] counts = new int[RESOLUTIONS.length][TYPES][];
+
+		Counters() {
+			for (Resolution resolution : RESOLUTIONS) {
+				int[] p = new int[resolution.buckets];
+				Arrays.fill(p, -1);
+				periods[resolution.ordinal()] = p;
+			}
+		}
+
+		void add(int type, long timestamp) {
+			for (Resolution resolution : RESOLUTIONS) {
+				int period = (int) (timestamp / resolution.seconds);
+				int bucket = period % resolution.buckets;
+				int[] p = periods[resolution.ordinal()];
+				int[][] c = counts[resolution.ordinal()];
+				if (p[bucket] != period) {
+					if (p[bucket] > period) {
+						// Too old for the ring
+						continue;
+					}
+					for (int[] typeCounts : c) {
+						if (typeCounts != null) {
+							typeCounts[bucket] = 0;
+						}
+					}
+					p[bucket] = period;
+				}
+				if (c[type] == null) {
+					c[type] = new int[resolution.buckets];
+				}
+				c[type][bucket]++;
+			}
+		}
+
+		long get(Resolution resolution, int type, long period) {
+			if (period < 0) {
+				return 0;
+			}
+			int bucket = (int) (period % resolution.buckets);
+			int[] typeCounts = counts[resolution.ordinal()][type];
+			if (typeCounts == null || periods[resolution.ordinal()][bucket] != period) {
+				return 0;
+			}
+			return typeCounts[bucket];
+		}
+	}
+}
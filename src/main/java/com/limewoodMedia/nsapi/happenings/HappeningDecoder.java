@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.happenings;
+
+import com.limewoodMedia.nsapi.holders.Happening;
+import com.limewoodMedia.nsapi.holders.HappeningData.EventHappening;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Decodes happening text into {@link HappeningEvent}s.
+ * All type fragments are compiled into one Aho-Corasick automaton, so the text is scanned once,
+ * case-insensitively, while the @@nation@@ and %%region%% names are picked up in the same pass.
+ * Instances are immutable and safe to share between threads.
+ * @author Afforess
+ *
+ */
+public final class HappeningDecoder {
+	private static final HappeningEvent.Type[] TYPES = HappeningEvent.Type.values();
+	private static final int NO_MATCH = Integer.MAX_VALUE;
+
+	/** The shared decoder for the built-in happening types */
+	public static final HappeningDecoder DEFAULT = new HappeningDecoder();
+
+	/** Maps a (lower case ASCII) character to its column in the transition table, 0 for any other */
+	private final int[] alphabet = new int[128];
+	private final int columns;
+	/** Dense transition table: state * columns + column */
+	private final int[] transitions;
+	/** The best (lowest) type ordinal matched on reaching each state */
+	private final int[] matches;
+
+	private HappeningDecoder() {
+		int column = 1;
+		for (HappeningEvent.Type type : TYPES) {
+			for (String fragment : type.getFragments()) {
+				for (int i = 0; i < fragment.length(); i++) {
+					char c = fragment.charAt(i);
+					if (alphabet[c] == 0) {
+						alphabet[c] = column++;
+					}
+				}
+			}
+		}
+		columns = column;
+		// Build the trie
+		List<int[]> trie = new ArrayList<int[]>();
+		List<Integer> output = new ArrayList<Integer>();
+		trie.add(new int[columns]);
+		output.add(NO_MATCH);
+		for (HappeningEvent.Type type : TYPES) {
+			for (String fragment : type.getFragments()) {
+				int state = 0;
+				for (int i = 0; i < fragment.length(); i++) {
+					int c = alphabet[fragment.charAt(i)];
+					if (trie.get(state)[c] == 0) {
+						trie.get(state)[c] = trie.size();
+						trie.add(new int[columns]);
+						output.add(NO_MATCH);
+					}
+					state = trie.get(state)[c];
+				}
+				output.set(state, Math.min(output.get(state), type.ordinal()));
+			}
+		}
+		// Resolve failure links breadth first into a complete transition table
+		int states = trie.size();
+		transitions = new int[states * columns];
+		matches = new int[states];
+		int[] fail = new int[states];
+		for (int s = 0; s < states; s++) {
+			matches[s] = output.get(s);
+		}
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		for (int c = 1; c < columns; c++) {
+			int next = trie.get(0)[c];
+			transitions[c] = next;
+			if (next != 0) {
+				queue.add(next);
+			}
+		}
+		while (!queue.isEmpty()) {
+			int s = queue.removeFirst();
+			matches[s] = Math.min(matches[s], matches[fail[s]]);
+			for (int c = 1; c < columns; c++) {
+				int next = trie.get(s)[c];
+				if (next != 0) {
+					fail[next] = transitions[fail[s] * columns + c];
+					transitions[s * columns + c] = next;
+					queue.add(next);
+				} else {
+					transitions[s * columns + c] = transitions[fail[s] * columns + c];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decodes a happening
+	 * @param happening the happening
+	 * @return the decoded happening
+	 */
+	public HappeningEvent decode(Happening happening) {
+		HappeningEvent event = decode(happening.text);
+		event.timestamp = happening.timestamp;
+		if (happening instanceof EventHappening) {
+			event.eventId = ((EventHappening) happening).eventId;
+		}
+		return event;
+	}
+
+	/**
+	 * Decodes happening text
+	 * @param text the happening text
+	 * @return the decoded happening (with no timestamp)
+	 */
+	public HappeningEvent decode(String text) {
+		HappeningEvent event = new HappeningEvent();
+		event.type = scan(text, event);
+		return event;
+	}
+
+	/**
+	 * Works out the type of happening text without extracting names
+	 * @param text the happening text
+	 * @return the type of the happening
+	 */
+	public HappeningEvent.Type decodeType(String text) {
+		return scan(text, null);
+	}
+
+	/**
+	 * Runs the automaton over the text, filling in the names if there is an event to fill
+	 */
+	private HappeningEvent.Type scan(String text, HappeningEvent event) {
+		if (text == null) {
+			return HappeningEvent.Type.UNKNOWN;
+		}
+		int state = 0;
+		int best = NO_MATCH;
+		int nations = 0;
+		int regions = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if ((c == '@' || c == '%') && i + 1 < length && text.charAt(i + 1) == c) {
+				// A @@nation@@ or %%region%% name
+				int end = text.indexOf(c == '@' ? "@@" : "%%", i + 2);
+				if (end > -1) {
+					if (event != null) {
+						if (c == '@') {
+							if (nations == 0) {
+								event.nation = text.substring(i + 2, end);
+							} else if (nations == 1) {
+								event.targetNation = text.substring(i + 2, end);
+							}
+							nations++;
+						} else {
+							if (regions == 0) {
+								event.region = text.substring(i + 2, end);
+							} else if (regions == 1) {
+								event.targetRegion = text.substring(i + 2, end);
+							}
+							regions++;
+						}
+					}
+					// Names never take part in fragment matches
+					i = end + 1;
+					state = 0;
+					continue;
+				}
+			}
+			if (c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			}
+			state = transitions[state * columns + (c < 128 ? alphabet[c] : 0)];
+			if (matches[state] < best) {
+				best = matches[state];
+			}
+		}
+		return best != NO_MATCH ? TYPES[best] : HappeningEvent.Type.UNKNOWN;
+	}
+}
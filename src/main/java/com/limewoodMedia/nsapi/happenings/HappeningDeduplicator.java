@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.happenings;
+
+import com.limewoodMedia.nsapi.holders.Happening;
+import com.limewoodMedia.nsapi.holders.HappeningData.EventHappening;
+
+import java.util.Arrays;
+
+/**
+ * A bounded window of recently seen happenings, used to drop the copies of an event that
+ * arrive through nation, region and world happenings.
+ * <p>
+ * World events are keyed by their event id. Every event is also keyed by its timestamp and a
+ * hash of its normalized text, so a nation or region copy of a world event (which has no id)
+ * is recognized as well. The window holds at most {@code capacity} keys and forgets keys older
+ * than {@code windowSeconds} before the newest timestamp seen. Lookups and inserts are constant
+ * time; the memory used is fixed when the window is created.
+ * @author Afforess
+ *
+ */
+public class HappeningDeduplicator {
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+	public static final long DEFAULT_WINDOW = 60 * 60;
+	private static final long EMPTY = 0;
+	private static final long ID_KEY = 1L << 63;
+
+	private final int capacity;
+	private final long window;
+	// Open addressing set of keys
+	private final long[] table;
+	private final int mask;
+	// Keys in insertion order, for expiry
+	private final long[] ringKeys;
+	private final long[] ringTimes;
+	private int head;
+	private int size;
+	private long newest = Long.MIN_VALUE;
+	private long duplicates;
+
+	/**
+	 * Creates a window of {@value #DEFAULT_CAPACITY} keys over {@value #DEFAULT_WINDOW} seconds
+	 */
+	public HappeningDeduplicator() {
+		this(DEFAULT_CAPACITY, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Creates a window
+	 * @param capacity the maximum number of keys kept (each world event uses two)
+	 * @param windowSeconds how long keys are kept, in seconds of event time
+	 */
+	public HappeningDeduplicator(int capacity, long windowSeconds) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.window = windowSeconds;
+		int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+		table = new long[tableSize];
+		mask = tableSize - 1;
+		ringKeys = new long[capacity];
+		ringTimes = new long[capacity];
+	}
+
+	/**
+	 * Checks whether a happening is new, and remembers it
+	 * @param happening the happening
+	 * @return true if it was not seen within the window
+	 */
+	public synchronized boolean add(Happening happening) {
+		long textKey = textKey(happening.timestamp, happening.text);
+		long idKey = EMPTY;
+		if (happening instanceof EventHappening && ((EventHappening) happening).eventId >= 0) {
+			idKey = ID_KEY | ((EventHappening) happening).eventId;
+		}
+		if (contains(textKey) || (idKey != EMPTY && contains(idKey))) {
+			duplicates++;
+			return false;
+		}
+		expire(happening.timestamp);
+		insert(textKey, happening.timestamp);
+		if (idKey != EMPTY) {
+			insert(idKey, happening.timestamp);
+		}
+		return true;
+	}
+
+	/**
+	 * Wraps a subscriber so that it only receives events not seen within the window
+	 * @param subscriber the subscriber
+	 * @return the deduplicating subscriber
+	 */
+	public HappeningStream.Subscriber wrap(final HappeningStream.Subscriber subscriber) {
+		return new HappeningStream.Subscriber() {
+			@Override
+			public void onHappening(EventHappening happening) {
+				if (add(happening)) {
+					subscriber.onHappening(happening);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return the number of keys in the window
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of duplicates dropped so far
+	 */
+	public synchronized long getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Forgets all keys
+	 */
+	public synchronized void clear() {
+		Arrays.fill(table, EMPTY);
+		head = 0;
+		size = 0;
+		newest = Long.MIN_VALUE;
+	}
+
+	private void expire(long timestamp) {
+		if (timestamp > newest) {
+			newest = timestamp;
+		}
+		long oldest = newest - window;
+		while (size > 0 && ringTimes[head] < oldest) {
+			evict();
+		}
+	}
+
+	private void insert(long key, long timestamp) {
+		if (size == capacity) {
+			evict();
+		}
+		int slot = (head + size) % capacity;
+		ringKeys[slot] = key;
+		ringTimes[slot] = timestamp;
+		size++;
+		int i = index(key);
+		while (table[i] != EMPTY) {
+			i = (i + 1) & mask;
+		}
+		table[i] = key;
+	}
+
+	private void evict() {
+		remove(ringKeys[head]);
+		head = (head + 1) % capacity;
+		size--;
+	}
+
+	private boolean contains(long key) {
+		for (int i = index(key); table[i] != EMPTY; i = (i + 1) & mask) {
+			if (table[i] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void remove(long key) {
+		int i = index(key);
+		while (table[i] != key) {
+			if (table[i] == EMPTY) {
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		// Shift later entries of the probe run back into the gap
+		int gap = i;
+		for (int j = (i + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+			int home = index(table[j]);
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				table[gap] = table[j];
+				gap = j;
+			}
+		}
+		table[gap] = EMPTY;
+	}
+
+	private int index(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Hashes the timestamp and the text, ignoring case, repeated whitespace and a trailing period
+	 */
+	static long textKey(long timestamp, String text) {
+		long hash = 0xcbf29ce484222325L ^ timestamp;
+		if (text != null) {
+			int end = text.length();
+			while (end > 0 && (text.charAt(end - 1) == '.' || Character.isWhitespace(text.charAt(end - 1)))) {
+				end--;
+			}
+			boolean space = false;
+			boolean started = false;
+			for (int i = 0; i < end; i++) {
+				char c = text.charAt(i);
+				if (Character.isWhitespace(c)) {
+					space = true;
+					continue;
+				}
+				if (space && started) {
+					hash = (hash ^ ' ') * 0x100000001b3L;
+					space = false;
+				}
+				hash = (hash ^ Character.toLowerCase(c)) * 0x100000001b3L;
+				started = true;
+			}
+		}
+		hash &= ~ID_KEY;
+		return hash == EMPTY ? 1 : hash;
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.happenings;
+
+import com.limewoodMedia.nsapi.holders.HappeningData;
+
+/**
+ * A happening decoded into its type and the nations and regions involved,
+ * as produced by {@link HappeningDecoder}
+ * @author Afforess
+ *
+ */
+public class HappeningEvent {
+	/**
+	 * Happening types, with the text fragments identifying them.
+	 * When several fragments match, the type listed first wins.
+	 */
+	public static enum Type {
+		MOVE(HappeningData.Filter.MOVEMENT, "relocated from"),
+		FOUND(HappeningData.Filter.FOUNDING, "was founded in"),
+		REFOUND(HappeningData.Filter.FOUNDING, "was refounded in"),
+		CEASE_TO_EXIST(HappeningData.Filter.CEASE_TO_EXIST, "ceased to exist"),
+		UNENDORSE(HappeningData.Filter.ENDORSEMENT, "withdrew its endorsement"),
+		ENDORSE(HappeningData.Filter.ENDORSEMENT, "endorsed"),
+		WA_APPLY(HappeningData.Filter.WA_MEMBERSHIP, "applied to join the world assembly"),
+		WA_ADMIT(HappeningData.Filter.WA_MEMBERSHIP, "was admitted to the world assembly"),
+		WA_RESIGN(HappeningData.Filter.WA_MEMBERSHIP, "resigned from the world assembly"),
+		WA_EJECT(HappeningData.Filter.WA_MEMBERSHIP, "was ejected from the wa"),
+		VOTE_WITHDRAW(HappeningData.Filter.VOTE, "withdrew its vote"),
+		VOTE_FOR(HappeningData.Filter.VOTE, "voted for"),
+		VOTE_AGAINST(HappeningData.Filter.VOTE, "voted against"),
+		PROPOSAL_SUBMIT(HappeningData.Filter.WA_PROPOSAL, "submitted a proposal"),
+		PROPOSAL_APPROVE(HappeningData.Filter.WA_PROPOSAL, "approved"),
+		LAW(HappeningData.Filter.LEGISLATION, "following new legislation"),
+		RMB_POST(HappeningData.Filter.REGIONAL_MESSAGE_BOARD, "lodged a message"),
+		EMBASSY(HappeningData.Filter.EMBASSY, "embassy"),
+		EJECT(HappeningData.Filter.EJECTIONS, "ejected"),
+		BAN(HappeningData.Filter.EJECTIONS, "banned"),
+		DISPATCH(HappeningData.Filter.FACTBOOK_DISPATCH, "published"),
+		OFFICER(HappeningData.Filter.ADMINISTRATION, "regional officer"),
+		REGION_FACTBOOK(HappeningData.Filter.ADMINISTRATION, "world factbook entry"),
+		REGION_FLAG(HappeningData.Filter.ADMINISTRATION, "regional flag"),
+		SETTINGS(HappeningData.Filter.SETTINGS_CHANGE, "altered its national", "changed its national"),
+		UNKNOWN(null);
+
+		private final HappeningData.Filter category;
+		private final String[] fragments;
+
+		private Type(HappeningData.Filter category, String...fragments) {
+			this.category = category;
+			this.fragments = fragments;
+		}
+
+		/**
+		 * @return the happenings filter this type belongs to, or null for UNKNOWN
+		 */
+		public HappeningData.Filter getCategory() {
+			return category;
+		}
+
+		String[] getFragments() {
+			return fragments;
+		}
+	}
+
+	public Type type;
+	public long timestamp;
+	/** The event id for world happenings, otherwise -1 */
+	public int eventId = -1;
+	/** The first nation mentioned (the actor) */
+	public String nation;
+	/** The second nation mentioned (the target), if any */
+	public String targetNation;
+	/** The first region mentioned (for moves, the region moved from) */
+	public String region;
+	/** The second region mentioned (for moves, the region moved to), if any */
+	public String targetRegion;
+
+	@Override
+	public String toString() {
+		return type + " at " + timestamp + (eventId != -1 ? " (" + eventId + ")" : "")
+				+ ": nation=" + nation + ", targetNation=" + targetNation
+				+ ", region=" + region + ", targetRegion=" + targetRegion;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.happenings;
+
+import com.limewoodMedia.nsapi.holders.HappeningData;
+import com.limewoodMedia.nsapi.holders.HappeningData.EventHappening;
+import com.limewoodMedia.nsapi.holders.HappeningData.View;
+import com.limewoodMedia.nsapi.holders.HappeningData.ViewType;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A local filter on a {@link HappeningStream} subscription.
+ * Selects events by category (as classified by {@link HappeningClassifier}) and/or
+ * by the nations and regions mentioned in them, without an API call of its own.
+ * @author Afforess
+ *
+ */
+public class HappeningFilter {
+	private final Set<HappeningData.Filter> categories;
+	private String nation;
+	private String region;
+
+	private HappeningFilter(Set<HappeningData.Filter> categories) {
+		this.categories = categories;
+	}
+
+	/**
+	 * @param categories the categories to accept, or none to accept every category
+	 * @return a filter accepting events of the given categories
+	 */
+	public static HappeningFilter of(HappeningData.Filter...categories) {
+		Set<HappeningData.Filter> set = EnumSet.noneOf(HappeningData.Filter.class);
+		set.addAll(Arrays.asList(categories));
+		return new HappeningFilter(set);
+	}
+
+	/**
+	 * Restricts the filter to events mentioning a nation or a region
+	 * NOTE: region views only see events that name the region itself
+	 * @param view the nation or region
+	 * @return this filter
+	 */
+	public HappeningFilter view(ViewType view) {
+		String id = view.name.toLowerCase().replace(' ', '_');
+		if (view.view == View.NATION) {
+			nation = "@@" + id + "@@";
+		} else {
+			region = "%%" + id + "%%";
+		}
+		return this;
+	}
+
+	/**
+	 * @return the categories accepted, empty if every category is accepted
+	 */
+	public Set<HappeningData.Filter> getCategories() {
+		return Collections.unmodifiableSet(categories);
+	}
+
+	/**
+	 * @param event the event
+	 * @param category the category of the event, or null if unknown
+	 * @return whether the filter accepts the event
+	 */
+	public boolean accept(EventHappening event, HappeningData.Filter category) {
+		if (!categories.isEmpty() && (category == null || !categories.contains(category))) {
+			return false;
+		}
+		if (nation != null || region != null) {
+			String text = event.text != null ? event.text.toLowerCase() : "";
+			if (nation != null && !text.contains(nation)) {
+				return false;
+			}
+			if (region != null && !text.contains(region)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.happenings;
+
+import com.limewoodMedia.nsapi.holders.HappeningData.EventHappening;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A durable, append-only journal of world happenings that can be replayed from any event id.
+ * <p>
+ * Events are kept in segments. Each segment has a memory-mapped file of fixed-size records
+ * (event id, timestamp, decoded type, interned nation/region ids and the offset of the text)
+ * and a file with the UTF-8 text. Event ids only increase, so the records are sorted and a
+ * binary search over them serves as the event id index. Nation and region names are interned
+ * into a shared name file. Only the segment being written is kept open; full segments are closed
+ * and opened again while a replay reads them.
+ * <p>
+ * The journal is a {@link HappeningStream.Subscriber}, so a stream can write straight into it.
+ * @author Afforess
+ *
+ */
+public class HappeningJournal implements HappeningStream.Subscriber, Closeable {
+	public static final int DEFAULT_SEGMENT_RECORDS = 64 * 1024;
+	static final int MAGIC = 0x4e534a4c; // NSJL
+	static final int HEADER_SIZE = 16;
+	static final int RECORD_SIZE = 48;
+	// Record layout
+	static final int EVENT_ID = 0;
+	static final int TIMESTAMP = 4;
+	static final int TYPE = 12;
+	static final int NATION = 16;
+	static final int TARGET_NATION = 20;
+	static final int REGION = 24;
+	static final int TARGET_REGION = 28;
+	static final int TEXT_OFFSET = 32;
+	static final int TEXT_LENGTH = 40;
+	/** Id stored for missing names */
+	public static final int NO_NAME = -1;
+	private static final String NAMES = "names.dat";
+	private static final HappeningEvent.Type[] TYPES = HappeningEvent.Type.values();
+
+	/**
+	 * Receives replayed events
+	 */
+	public static interface Replayer {
+		/**
+		 * @param happening the replayed event
+		 * @param event the decoded event stored with it
+		 */
+		public void onReplay(EventHappening happening, HappeningEvent event);
+	}
+
+	private final File directory;
+	private final int segmentRecords;
+	private final HappeningDecoder decoder = HappeningDecoder.DEFAULT;
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private final Map<String, Integer> nameIds = new HashMap<String, Integer>();
+	private final List<String> names = new ArrayList<String>();
+	private DataOutputStream namesOut;
+	private int lastEventId = -1;
+	private boolean closed;
+
+	/**
+	 * Opens (or creates) a journal with the default segment size
+	 * @param directory the journal directory
+	 * @throws IOException if the journal could not be opened
+	 */
+	public HappeningJournal(File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_RECORDS);
+	}
+
+	/**
+	 * Opens (or creates) a journal
+	 * @param directory the journal directory
+	 * @param segmentRecords the number of records in new segments
+	 * @throws IOException if the journal could not be opened
+	 */
+	public HappeningJournal(File directory, int segmentRecords) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create journal directory " + directory);
+		}
+		this.directory = directory;
+		this.segmentRecords = segmentRecords;
+		loadNames();
+		String[] files = directory.list();
+		Arrays.sort(files);
+		for (String file : files) {
+			if (file.startsWith("segment-") && file.endsWith(".rec")) {
+				if (!segments.isEmpty()) {
+					segments.get(segments.size() - 1).close();
+				}
+				segments.add(new Segment(directory, file.substring(0, file.length() - 4), 0));
+			}
+		}
+		if (!segments.isEmpty()) {
+			Segment last = segments.get(segments.size() - 1);
+			if (last.count > 0) {
+				lastEventId = last.records.getInt(last.position(last.count - 1) + EVENT_ID);
+			}
+		}
+	}
+
+	private void loadNames() throws IOException {
+		File file = new File(directory, NAMES);
+		if (file.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				while (true) {
+					String name = in.readUTF();
+					nameIds.put(name, Integer.valueOf(names.size()));
+					names.add(name);
+				}
+			} catch (EOFException e) {
+				// End of names
+			} finally {
+				in.close();
+			}
+		}
+		namesOut = new DataOutputStream(new FileOutputStream(file, true));
+	}
+
+	/**
+	 * @return the id of the newest event in the journal, or -1 if it is empty
+	 */
+	public synchronized int getLastEventId() {
+		return lastEventId;
+	}
+
+	/**
+	 * @return the number of events in the journal
+	 */
+	public synchronized long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.count;
+		}
+		return size;
+	}
+
+	/**
+	 * @param id a name id from the journal
+	 * @return the name, or null for {@link #NO_NAME}
+	 */
+	public synchronized String getName(int id) {
+		return id == NO_NAME ? null : names.get(id);
+	}
+
+	/**
+	 * Appends the event to the journal
+	 */
+	@Override
+	public void onHappening(EventHappening happening) {
+		try {
+			append(happening);
+		} catch (IOException e) {
+			throw new RuntimeException("IOException writing happenings journal", e);
+		}
+	}
+
+	/**
+	 * Appends an event to the journal. Events not newer than the last event are ignored.
+	 * @param happening the event
+	 * @return true if the event was appended
+	 * @throws IOException if the event could not be written
+	 */
+	public synchronized boolean append(EventHappening happening) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Journal closed");
+		}
+		if (happening.eventId <= lastEventId) {
+			return false;
+		}
+		Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (segment == null || segment.count == segment.capacity) {
+			if (segment != null) {
+				segment.flush();
+				segment.close();
+			}
+			// The root locale keeps the digits ASCII, so the names sort the same on every host
+			segment = new Segment(directory, String.format(Locale.ROOT, "segment-%010d", happening.eventId), segmentRecords);
+			segments.add(segment);
+		}
+		HappeningEvent event = decoder.decode(happening.text);
+		byte[] text = happening.text != null ? happening.text.getBytes("UTF-8") : new byte[0];
+		long textOffset = segment.appendText(text);
+		int pos = segment.position(segment.count);
+		ByteBuffer records = segment.records;
+		records.putInt(pos + EVENT_ID, happening.eventId);
+		records.putLong(pos + TIMESTAMP, happening.timestamp);
+		records.putInt(pos + TYPE, event.type.ordinal());
+		records.putInt(pos + NATION, intern(event.nation));
+		records.putInt(pos + TARGET_NATION, intern(event.targetNation));
+		records.putInt(pos + REGION, intern(event.region));
+		records.putInt(pos + TARGET_REGION, intern(event.targetRegion));
+		records.putLong(pos + TEXT_OFFSET, textOffset);
+		records.putInt(pos + TEXT_LENGTH, text.length);
+		// Publish the record last, so a crash never exposes a half written one
+		segment.setCount(segment.count + 1);
+		lastEventId = happening.eventId;
+		return true;
+	}
+
+	private int intern(String name) throws IOException {
+		if (name == null) {
+			return NO_NAME;
+		}
+		Integer id = nameIds.get(name);
+		if (id == null) {
+			id = Integer.valueOf(names.size());
+			namesOut.writeUTF(name);
+			nameIds.put(name, id);
+			names.add(name);
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Replays the events newer than an event id, in event id order
+	 * @param sinceId the event id to replay after, or -1 for the whole journal
+	 * @param replayer to receive the events
+	 * @return the number of events replayed
+	 * @throws IOException if the journal could not be read
+	 */
+	public synchronized int replay(int sinceId, Replayer replayer) throws IOException {
+		int count = 0;
+		for (int s = findSegment(sinceId); s < segments.size(); s++) {
+			Segment segment = segments.get(s);
+			boolean opened = !segment.isOpen();
+			if (opened) {
+				segment.open(0);
+			}
+			try {
+				count += replay(segment, sinceId, replayer);
+			} finally {
+				if (opened) {
+					segment.close();
+				}
+			}
+		}
+		return count;
+	}
+
+	private int replay(Segment segment, int sinceId, Replayer replayer) throws IOException {
+		int count = 0;
+		for (int r = segment.find(sinceId); r < segment.count; r++) {
+			int pos = segment.position(r);
+			ByteBuffer records = segment.records;
+			EventHappening happening = new EventHappening(records.getLong(pos + TIMESTAMP),
+					segment.readText(records.getLong(pos + TEXT_OFFSET), records.getInt(pos + TEXT_LENGTH)),
+					records.getInt(pos + EVENT_ID));
+			HappeningEvent event = new HappeningEvent();
+			event.type = TYPES[records.getInt(pos + TYPE)];
+			event.timestamp = happening.timestamp;
+			event.eventId = happening.eventId;
+			event.nation = getName(records.getInt(pos + NATION));
+			event.targetNation = getName(records.getInt(pos + TARGET_NATION));
+			event.region = getName(records.getInt(pos + REGION));
+			event.targetRegion = getName(records.getInt(pos + TARGET_REGION));
+			replayer.onReplay(happening, event);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the index of the first segment that may hold events newer than sinceId
+	 */
+	private int findSegment(int sinceId) {
+		int low = 0;
+		int high = segments.size() - 1;
+		int found = 0;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			Segment segment = segments.get(mid);
+			if (segment.count > 0 && segment.firstEventId <= sinceId) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Forces written records and text to disk
+	 * @throws IOException if the journal could not be synced
+	 */
+	public synchronized void flush() throws IOException {
+		for (Segment segment : segments) {
+			segment.flush();
+		}
+		namesOut.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		flush();
+		for (Segment segment : segments) {
+			segment.close();
+		}
+		namesOut.close();
+	}
+
+	/**
+	 * A record file and its text file
+	 */
+	private static final class Segment {
+		final File recordPath;
+		final File textPath;
+		final int capacity;
+		int count;
+		/** The event id of the first record, if count > 0 */
+		int firstEventId;
+		// Null while the segment is closed
+		MappedByteBuffer records;
+		FileChannel text;
+		private RandomAccessFile recordFile;
+		private RandomAccessFile textFile;
+
+		Segment(File directory, String name, int capacity) throws IOException {
+			recordPath = new File(directory, name + ".rec");
+			textPath = new File(directory, name + ".txt");
+			boolean exists = recordPath.exists();
+			open(exists ? 0 : HEADER_SIZE + (long) capacity * RECORD_SIZE);
+			if (exists) {
+				if (records.getInt(0) != MAGIC) {
+					close();
+					throw new IOException("Not a journal segment: " + recordPath);
+				}
+				count = records.getInt(4);
+				if (count > 0) {
+					firstEventId = records.getInt(position(0) + EVENT_ID);
+				}
+			} else {
+				records.putInt(0, MAGIC);
+				records.putInt(4, 0);
+			}
+			this.capacity = (records.capacity() - HEADER_SIZE) / RECORD_SIZE;
+		}
+
+		/**
+		 * Opens and maps the files
+		 * @param length the length to give a new record file, or 0 to keep the length
+		 */
+		void open(long length) throws IOException {
+			recordFile = new RandomAccessFile(recordPath, "rw");
+			try {
+				textFile = new RandomAccessFile(textPath, "rw");
+				if (length > 0) {
+					recordFile.setLength(length);
+				}
+				FileChannel channel = recordFile.getChannel();
+				records = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+				text = textFile.getChannel();
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		boolean isOpen() {
+			return recordFile != null;
+		}
+
+		int position(int record) {
+			return HEADER_SIZE + record * RECORD_SIZE;
+		}
+
+		void setCount(int count) {
+			if (this.count == 0 && count > 0) {
+				firstEventId = records.getInt(position(0) + EVENT_ID);
+			}
+			this.count = count;
+			records.putInt(4, count);
+		}
+
+		/**
+		 * @return the index of the first record newer than sinceId
+		 */
+		int find(int sinceId) {
+			int low = 0;
+			int high = count;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (records.getInt(position(mid) + EVENT_ID) <= sinceId) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		long appendText(byte[] bytes) throws IOException {
+			long offset = text.size();
+			ByteBuffer buf = ByteBuffer.wrap(bytes);
+			while (buf.hasRemaining()) {
+				text.write(buf, offset + buf.position());
+			}
+			return offset;
+		}
+
+		String readText(long offset, int length) throws IOException {
+			ByteBuffer buf = ByteBuffer.allocate(length);
+			while (buf.hasRemaining()) {
+				if (text.read(buf, offset + buf.position()) < 0) {
+					throw new EOFException("Journal text truncated");
+				}
+			}
+			return new String(buf.array(), "UTF-8");
+		}
+
+		void flush() throws IOException {
+			if (isOpen()) {
+				records.force();
+				text.force(false);
+			}
+		}
+
+		/**
+		 * Closes the files; the mapping goes once the buffer is collected
+		 */
+		void close() throws IOException {
+			RandomAccessFile recordFile = this.recordFile;
+			RandomAccessFile textFile = this.textFile;
+			this.recordFile = null;
+			this.textFile = null;
+			records = null;
+			text = null;
+			try {
+				if (recordFile != null) {
+					recordFile.close();
+				}
+			} finally {
+				if (textFile != null) {
+					textFile.close();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,528 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.happenings;
+
+import com.limewoodMedia.nsapi.NationStates;
+import com.limewoodMedia.nsapi.RequestScheduler;
+import com.limewoodMedia.nsapi.exceptions.RateLimitReachedException;
+import com.limewoodMedia.nsapi.holders.HappeningData;
+import com.limewoodMedia.nsapi.holders.HappeningData.EventHappening;
+import com.limewoodMedia.nsapi.holders.HappeningData.ViewType;
+import com.limewoodMedia.nsapi.log.Log;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A continuous stream of world happenings.
+ * A background thread polls {@link NationStates#getHappeningInfo(ViewType, int, int, HappeningData.Filter...)},
+ * advancing the sinceId from the newest event seen, and hands new events to the subscribers
+ * in event id order. The poll interval shrinks when events are plentiful and grows when they are not,
+ * and stays within the rate limit budget.
+ * <p>
+ * Every subscriber has a bounded queue and a thread of its own. When a queue is full the poller
+ * waits for it, so a slow subscriber slows polling down instead of losing events.
+ * <p>
+ * Subscribers may have a {@link HappeningFilter} of their own. If the stream was created without
+ * filters it polls for the union of the subscribers' categories and sorts the events out locally,
+ * so any number of subscribers costs a single poll.
+ * <p>
+ * Failed polls, failing subscribers and polls that may have missed events (a full page since the
+ * last poll) are logged and passed to the {@link ErrorHandler}.
+ * @author Afforess
+ *
+ */
+public class HappeningStream {
+	public static final long DEFAULT_MIN_INTERVAL = 2000L;
+	public static final long DEFAULT_MAX_INTERVAL = 60000L;
+	public static final int DEFAULT_LIMIT = 100;
+	public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+	/**
+	 * Receives the events of a stream
+	 */
+	public static interface Subscriber {
+		/**
+		 * Called for every new event, in event id order, on the subscription's own thread
+		 * @param happening the event
+		 */
+		public void onHappening(EventHappening happening);
+	}
+
+	/**
+	 * Told about the problems of a stream. Every problem is logged as well.
+	 */
+	public static interface ErrorHandler {
+		/**
+		 * Called on the poller thread when a poll failed; the stream backs off and polls again
+		 * @param e the error
+		 */
+		public void onPollError(RuntimeException e);
+
+		/**
+		 * Called on the subscription's thread when a subscriber threw; the next event is still delivered
+		 * @param subscriber the subscriber
+		 * @param happening the event it failed on
+		 * @param e the error
+		 */
+		public void onSubscriberError(Subscriber subscriber, EventHappening happening, RuntimeException e);
+
+		/**
+		 * Called when a poll returned a full page: more events than the limit happened since the
+		 * previous poll, and any between the two ids were missed
+		 * @param afterId the newest event id delivered before the poll
+		 * @param beforeId the oldest event id the poll returned
+		 */
+		public void onGap(int afterId, int beforeId);
+	}
+
+	private static final Comparator<EventHappening> BY_EVENT_ID = new Comparator<EventHappening>() {
+		@Override
+		public int compare(EventHappening a, EventHappening b) {
+			return a.eventId < b.eventId ? -1 : (a.eventId == b.eventId ? 0 : 1);
+		}
+	};
+
+	private final NationStates api;
+	private final ViewType view;
+	private final HappeningData.Filter[] filters;
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private volatile int sinceId = -1;
+	private volatile RuntimeException lastError;
+	private volatile ErrorHandler errorHandler;
+	private volatile RequestScheduler.RequestClass requestClass;
+	private final Log log = new Log(HappeningStream.class.getName());
+	private long minInterval = DEFAULT_MIN_INTERVAL;
+	private long maxInterval = DEFAULT_MAX_INTERVAL;
+	private long interval = DEFAULT_MIN_INTERVAL;
+	private int limit = DEFAULT_LIMIT;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private Thread poller;
+
+	/**
+	 * Creates a stream of world happenings
+	 * @param api the API instance to poll with
+	 * @param view confine results to a specific nation or region (optional, may be null)
+	 * @param filters to filter the happenings polled
+	 */
+	public HappeningStream(NationStates api, ViewType view, HappeningData.Filter...filters) {
+		this.api = api;
+		this.view = view;
+		this.filters = filters.clone();
+		this.requestClass = api.getScheduler().getBackgroundClass();
+	}
+
+	/**
+	 * @return the id of the newest event delivered so far, or -1
+	 */
+	public int getSinceId() {
+		return sinceId;
+	}
+
+	/**
+	 * Sets the event id to resume from - only events with a higher id are delivered
+	 * @param sinceId the event id, or -1 to start with the latest events
+	 */
+	public void setSinceId(int sinceId) {
+		this.sinceId = sinceId;
+	}
+
+	/**
+	 * @return the last error that occurred while polling, or null
+	 */
+	public RuntimeException getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * @param errorHandler to be told about failed polls, failing subscribers and gaps (may be null)
+	 */
+	public void setErrorHandler(ErrorHandler errorHandler) {
+		this.errorHandler = errorHandler;
+	}
+
+	public ErrorHandler getErrorHandler() {
+		return errorHandler;
+	}
+
+	/**
+	 * Sets the class polls are scheduled in - default is the scheduler's background class
+	 * @param requestClass a class of the API object's scheduler
+	 */
+	public void setRequestClass(RequestScheduler.RequestClass requestClass) {
+		this.requestClass = requestClass;
+	}
+
+	public RequestScheduler.RequestClass getRequestClass() {
+		return requestClass;
+	}
+
+	/**
+	 * Sets the bounds of the poll interval
+	 * @param minInterval the shortest interval between polls in milliseconds
+	 * @param maxInterval the longest interval between polls in milliseconds
+	 */
+	public synchronized void setInterval(long minInterval, long maxInterval) {
+		if (minInterval <= 0 || maxInterval < minInterval) {
+			throw new IllegalArgumentException("Invalid poll interval " + minInterval + "-" + maxInterval);
+		}
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.interval = Math.max(minInterval, Math.min(maxInterval, interval));
+	}
+
+	/**
+	 * @return the interval until the next poll in milliseconds
+	 */
+	public synchronized long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Sets the maximum number of events to request per poll (default is 100)
+	 * @param limit the limit
+	 */
+	public synchronized void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * @return the maximum number of events requested per poll
+	 */
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Sets the queue capacity of subscriptions made after this call
+	 * @param queueCapacity the number of events a subscriber may lag behind
+	 */
+	public synchronized void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Adds a subscriber to the stream
+	 * @param subscriber the subscriber
+	 * @return the subscription, to unsubscribe with
+	 */
+	public Subscription subscribe(Subscriber subscriber) {
+		return subscribe(subscriber, null);
+	}
+
+	/**
+	 * Adds a subscriber receiving only the events accepted by a filter
+	 * @param subscriber the subscriber
+	 * @param filter the filter, or null for every event
+	 * @return the subscription, to unsubscribe with
+	 */
+	public Subscription subscribe(Subscriber subscriber, HappeningFilter filter) {
+		Subscription subscription;
+		synchronized (this) {
+			subscription = new Subscription(this, subscriber, filter, queueCapacity);
+		}
+		subscriptions.add(subscription);
+		subscription.start();
+		return subscription;
+	}
+
+	/**
+	 * Removes a subscriber from the stream, dropping any events still queued for it
+	 * @param subscription the subscription to remove
+	 */
+	public void unsubscribe(Subscription subscription) {
+		subscriptions.remove(subscription);
+		subscription.close(false);
+	}
+
+	/**
+	 * Starts polling on a background thread
+	 */
+	public synchronized void start() {
+		if (poller != null) {
+			return;
+		}
+		poller = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				pollLoop();
+			}
+		}, "HappeningStream poller");
+		poller.setDaemon(true);
+		poller.start();
+	}
+
+	/**
+	 * Stops polling. Subscribers still receive the events already queued for them.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			thread = poller;
+			poller = null;
+		}
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (Subscription subscription : subscriptions) {
+			subscription.close(true);
+		}
+		subscriptions.clear();
+	}
+
+	/**
+	 * @return whether the stream is polling
+	 */
+	public synchronized boolean isRunning() {
+		return poller != null;
+	}
+
+	private void pollLoop() {
+		while (!Thread.currentThread().isInterrupted()) {
+			long wait;
+			try {
+				int events = poll();
+				wait = adapt(events);
+				lastError = null;
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				// Rate limit or network trouble - try again later
+				lastError = e;
+				wait = backOff();
+				if (e instanceof RateLimitReachedException) {
+					log.debug("Poll refused by the rate limit, retrying in {} ms", Long.valueOf(wait));
+				} else {
+					log.warn("Poll failed", e);
+				}
+				ErrorHandler handler = errorHandler;
+				if (handler != null) {
+					handler.onPollError(e);
+				}
+			}
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Polls once and delivers the new events to the subscribers
+	 * @return the number of new events
+	 * @throws InterruptedException if interrupted while waiting for the scheduler or a full subscriber queue
+	 * @throws RateLimitReachedException if the rate limit was reached (but not exceeded)
+	 */
+	public int poll() throws InterruptedException {
+		int since = sinceId;
+		RequestScheduler scheduler = api.getScheduler();
+		HappeningData data;
+		scheduler.acquire(requestClass);
+		try {
+			data = api.getHappeningInfo(view, getLimit(), since, upstreamFilters());
+		} finally {
+			scheduler.release();
+		}
+		if (data.happenings == null || data.happenings.length == 0) {
+			return 0;
+		}
+		EventHappening[] events = data.happenings.clone();
+		Arrays.sort(events, BY_EVENT_ID);
+		if (since >= 0 && events.length >= getLimit() && events[0].eventId > since + 1) {
+			// The API returns the newest events, so the page cannot be continued backwards
+			log.warn("Poll returned a full page, events between {} and {} may be missed",
+					Integer.valueOf(since), Integer.valueOf(events[0].eventId));
+			ErrorHandler handler = errorHandler;
+			if (handler != null) {
+				handler.onGap(since, events[0].eventId);
+			}
+		}
+		int count = 0;
+		for (EventHappening event : events) {
+			if (event.eventId > since) {
+				publish(event);
+				since = event.eventId;
+				sinceId = since;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the stream's filters, or else the union of the subscribers' categories
+	 */
+	HappeningData.Filter[] upstreamFilters() {
+		if (filters.length > 0 || subscriptions.isEmpty()) {
+			return filters;
+		}
+		Set<HappeningData.Filter> union = EnumSet.noneOf(HappeningData.Filter.class);
+		for (Subscription subscription : subscriptions) {
+			if (subscription.filter == null || subscription.filter.getCategories().isEmpty()) {
+				// Someone wants everything
+				return filters;
+			}
+			union.addAll(subscription.filter.getCategories());
+		}
+		return union.toArray(new HappeningData.Filter[union.size()]);
+	}
+
+	/**
+	 * Hands an event to every subscriber accepting it, waiting for room in full queues
+	 */
+	void publish(EventHappening event) throws InterruptedException {
+		HappeningData.Filter category = null;
+		boolean classified = false;
+		for (Subscription subscription : subscriptions) {
+			if (subscription.filter != null) {
+				if (!classified) {
+					category = HappeningClassifier.classify(event.text);
+					classified = true;
+				}
+				if (!subscription.filter.accept(event, category)) {
+					continue;
+				}
+			}
+			subscription.offer(event);
+		}
+	}
+
+	/**
+	 * Adjusts the poll interval to the number of events the last poll returned
+	 * @return the interval until the next poll
+	 */
+	private synchronized long adapt(int events) {
+		if (events >= limit / 2) {
+			// Busy - poll sooner so no events fall outside the limit
+			interval = interval / 2;
+		} else if (events == 0) {
+			interval = interval + interval / 2;
+		}
+		interval = Math.max(minInterval, Math.min(maxInterval, interval));
+		return Math.max(interval, budgetInterval());
+	}
+
+	private synchronized long backOff() {
+		interval = maxInterval;
+		return interval;
+	}
+
+	/**
+	 * @return the shortest interval that leaves most of the rate limit to other calls
+	 */
+	private long budgetInterval() {
+		int remaining = api.getRateLimitRemaining();
+		if (remaining >= api.getRateLimit() / 4) {
+			return 0L;
+		}
+		return 30000L / Math.max(1, remaining);
+	}
+
+	/**
+	 * A subscriber's queue and delivery thread
+	 */
+	public static class Subscription {
+		private final HappeningStream stream;
+		private final Subscriber subscriber;
+		private final HappeningFilter filter;
+		private final BlockingQueue<EventHappening> queue;
+		private final Thread thread;
+		private volatile boolean closed;
+
+		Subscription(HappeningStream stream, Subscriber subscriber, HappeningFilter filter, int capacity) {
+			this.stream = stream;
+			this.subscriber = subscriber;
+			this.filter = filter;
+			this.queue = new ArrayBlockingQueue<EventHappening>(capacity);
+			this.thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					dispatch();
+				}
+			}, "HappeningStream subscriber");
+			this.thread.setDaemon(true);
+		}
+
+		void start() {
+			thread.start();
+		}
+
+		/**
+		 * @return the number of events waiting to be delivered to the subscriber
+		 */
+		public int getBacklog() {
+			return queue.size();
+		}
+
+		void offer(EventHappening event) throws InterruptedException {
+			while (!closed) {
+				if (queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+					return;
+				}
+			}
+		}
+
+		void close(boolean drain) {
+			closed = true;
+			if (!drain) {
+				queue.clear();
+				thread.interrupt();
+			}
+		}
+
+		private void dispatch() {
+			try {
+				while (!closed || !queue.isEmpty()) {
+					EventHappening event = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (event != null) {
+						try {
+							subscriber.onHappening(event);
+						} catch (RuntimeException e) {
+							// A failing subscriber must not stall the stream
+							stream.log.error("Subscriber failed on event " + event.eventId, e);
+							ErrorHandler handler = stream.errorHandler;
+							if (handler != null) {
+								handler.onSubscriberError(subscriber, event, e);
+							}
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				// Unsubscribed
+			}
+		}
+	}
+}
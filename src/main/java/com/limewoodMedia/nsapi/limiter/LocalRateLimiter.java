@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.limiter;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A rate limiter for a single process (the default)
+ * @author Afforess
+ *
+ */
+public class LocalRateLimiter implements RateLimiter {
+	private final LinkedList<Long> calls = new LinkedList<Long>();
+	private long lockout = 0;
+
+	@Override
+	public synchronized boolean tryAcquire(int limit, long window) {
+		if (getRemaining(limit, window) > 0) {
+			calls.add(System.currentTimeMillis());
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized int getRemaining(int limit, long window) {
+		long now = System.currentTimeMillis();
+		if (lockout > now) {
+			return 0;
+		}
+		Iterator<Long> i = calls.iterator();
+		while (i.hasNext()) {
+			if (i.next() + window < now) {
+				i.remove();
+			}
+		}
+		return limit - calls.size();
+	}
+
+	@Override
+	public synchronized long getWaitTime(int limit, long window) {
+		long now = System.currentTimeMillis();
+		if (lockout > now) {
+			return lockout - now;
+		}
+		if (getRemaining(limit, window) > 0) {
+			return 0;
+		}
+		if (limit <= 0) {
+			return window;
+		}
+		// The call that has to expire first is the count-limit+1 oldest
+		return Math.max(1, calls.get(calls.size() - limit) + window - now + 1);
+	}
+
+	@Override
+	public synchronized void lockOut(long until) {
+		lockout = Math.max(lockout, until);
+	}
+}
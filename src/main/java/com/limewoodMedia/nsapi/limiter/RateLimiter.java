@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.limiter;
+
+/**
+ * Keeps track of the calls made within the sliding rate limit window
+ * @author Afforess
+ *
+ */
+public interface RateLimiter {
+	/**
+	 * Records a call if the limit allows one
+	 * @param limit the max number of calls per window
+	 * @param window the length of the window, in milliseconds
+	 * @return true if the call may be made
+	 */
+	public boolean tryAcquire(int limit, long window);
+
+	/**
+	 * @param limit the max number of calls per window
+	 * @param window the length of the window, in milliseconds
+	 * @return the number of calls that may be made right now
+	 */
+	public int getRemaining(int limit, long window);
+
+	/**
+	 * @param limit the max number of calls per window
+	 * @param window the length of the window, in milliseconds
+	 * @return how long until a call may be made, in milliseconds (0 if one may be made now)
+	 */
+	public long getWaitTime(int limit, long window);
+
+	/**
+	 * Blocks all calls until the given time (after the API has refused a call)
+	 * @param until the time to block calls until, in milliseconds
+	 */
+	public void lockOut(long until);
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.limiter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A rate limiter shared by all processes on a host through a memory-mapped file.
+ * <p>
+ * The file holds a ring of call times and the lockout deadline. Every update takes an
+ * exclusive lock on the file, so all processes using the same file (and the same User-Agent)
+ * draw from one budget, and a 429 seen by one process blocks them all.
+ * <pre>
+ * api.setRateLimiter(new SharedRateLimiter(new File("/tmp/nsapi.limit")));
+ * </pre>
+ * @author Afforess
+ *
+ */
+public class SharedRateLimiter implements RateLimiter, Closeable {
+	public static final int DEFAULT_CAPACITY = 256;
+	private static final int MAGIC = 0x4e53524c; // NSRL
+	// Layout
+	private static final int CAPACITY = 4;
+	private static final int HEAD = 8;
+	private static final int COUNT = 12;
+	private static final int LOCKOUT = 16;
+	private static final int RING = 24;
+	// File locks are held by the whole JVM, so threads sharing a file also share a monitor
+	private static final Map<String, Object> MONITORS = new HashMap<String, Object>();
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final Object monitor;
+	private final int capacity;
+
+	/**
+	 * Opens (or creates) a shared limiter file with room for {@value #DEFAULT_CAPACITY} calls per window
+	 * @param path the file shared by the processes
+	 * @throws IOException if the file could not be opened
+	 */
+	public SharedRateLimiter(File path) throws IOException {
+		this(path, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Opens (or creates) a shared limiter file
+	 * @param path the file shared by the processes
+	 * @param capacity the max number of calls per window the file can track (when creating it)
+	 * @throws IOException if the file could not be opened
+	 */
+	public SharedRateLimiter(File path, int capacity) throws IOException {
+		String key = path.getCanonicalPath();
+		synchronized (MONITORS) {
+			Object m = MONITORS.get(key);
+			if (m == null) {
+				m = new Object();
+				MONITORS.put(key, m);
+			}
+			monitor = m;
+		}
+		file = new RandomAccessFile(path, "rw");
+		channel = file.getChannel();
+		synchronized (monitor) {
+			FileLock lock = channel.lock();
+			try {
+				if (channel.size() < RING) {
+					file.setLength(RING + capacity * 8L);
+					buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+					buffer.putInt(CAPACITY, capacity);
+					buffer.putInt(0, MAGIC);
+				} else {
+					buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+					if (buffer.getInt(0) != MAGIC) {
+						file.close();
+						throw new IOException("Not a rate limiter file: " + path);
+					}
+				}
+				this.capacity = buffer.getInt(CAPACITY);
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	@Override
+	public boolean tryAcquire(int limit, long window) {
+		synchronized (monitor) {
+			FileLock lock = lock();
+			try {
+				long now = System.currentTimeMillis();
+				if (remaining(limit, window, now) <= 0) {
+					return false;
+				}
+				int head = buffer.getInt(HEAD);
+				int count = buffer.getInt(COUNT);
+				buffer.putLong(RING + ((head + count) % capacity) * 8, now);
+				buffer.putInt(COUNT, count + 1);
+				return true;
+			} finally {
+				release(lock);
+			}
+		}
+	}
+
+	@Override
+	public int getRemaining(int limit, long window) {
+		synchronized (monitor) {
+			FileLock lock = lock();
+			try {
+				return remaining(limit, window, System.currentTimeMillis());
+			} finally {
+				release(lock);
+			}
+		}
+	}
+
+	@Override
+	public long getWaitTime(int limit, long window) {
+		synchronized (monitor) {
+			FileLock lock = lock();
+			try {
+				long now = System.currentTimeMillis();
+				long lockout = buffer.getLong(LOCKOUT);
+				if (lockout > now) {
+					return lockout - now;
+				}
+				int slots = Math.min(limit, capacity);
+				if (remaining(limit, window, now) > 0) {
+					return 0;
+				}
+				if (slots <= 0) {
+					return window;
+				}
+				// The call that has to expire first is the count-slots+1 oldest
+				int count = buffer.getInt(COUNT);
+				int index = (buffer.getInt(HEAD) + count - slots) % capacity;
+				return Math.max(1, buffer.getLong(RING + index * 8) + window - now + 1);
+			} finally {
+				release(lock);
+			}
+		}
+	}
+
+	@Override
+	public void lockOut(long until) {
+		synchronized (monitor) {
+			FileLock lock = lock();
+			try {
+				if (buffer.getLong(LOCKOUT) < until) {
+					buffer.putLong(LOCKOUT, until);
+				}
+			} finally {
+				release(lock);
+			}
+		}
+	}
+
+	/**
+	 * Closes the file (the shared state stays on disk)
+	 * @throws IOException if the file could not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Drops expired calls and counts the free slots, holding the lock
+	 */
+	private int remaining(int limit, long window, long now) {
+		if (buffer.getLong(LOCKOUT) > now) {
+			return 0;
+		}
+		int head = buffer.getInt(HEAD);
+		int count = buffer.getInt(COUNT);
+		while (count > 0 && buffer.getLong(RING + head * 8) + window < now) {
+			head = (head + 1) % capacity;
+			count--;
+		}
+		buffer.putInt(HEAD, head);
+		buffer.putInt(COUNT, count);
+		return Math.min(limit, capacity) - count;
+	}
+
+	private FileLock lock() {
+		try {
+			return channel.lock();
+		} catch (IOException e) {
+			throw new RuntimeException("IOException locking rate limiter file", e);
+		}
+	}
+
+	private static void release(FileLock lock) {
+		try {
+			lock.release();
+		} catch (IOException e) {
+			throw new RuntimeException("IOException unlocking rate limiter file", e);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands records to another appender on a background thread, through a bounded queue.
+ * <p>
+ * Logging threads only offer a reference to the queue, so they never wait on console or file
+ * I/O, nor on a monitor the background thread holds while writing. When the queue is full new
+ * records are dropped (and counted) instead of blocking. Records still queued at JVM shutdown
+ * are written by a shutdown hook.
+ * @author Afforess
+ *
+ */
+public class AsyncAppender implements Appender {
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private final Appender target;
+	private final BlockingQueue<LogRecord> queue;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong appended = new AtomicLong();
+	// Only the background thread writes it
+	private volatile long written;
+	private volatile Thread thread;
+	private volatile boolean closed;
+
+	/**
+	 * Creates an appender buffering up to {@value #DEFAULT_CAPACITY} records
+	 * @param target the appender records are written to
+	 */
+	public AsyncAppender(Appender target) {
+		this(target, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an appender
+	 * @param target the appender records are written to
+	 * @param capacity the max number of records buffered
+	 */
+	public AsyncAppender(Appender target, int capacity) {
+		this.target = target;
+		this.queue = new ArrayBlockingQueue<LogRecord>(capacity);
+	}
+
+	@Override
+	public void append(LogRecord record) {
+		if (closed || !queue.offer(record)) {
+			dropped.incrementAndGet();
+			return;
+		}
+		appended.incrementAndGet();
+		if (thread == null) {
+			start();
+		}
+	}
+
+	private synchronized void start() {
+		if (thread != null || closed) {
+			return;
+		}
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "ns-api log");
+		thread.setDaemon(true);
+		thread.start();
+		this.thread = thread;
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		}));
+	}
+
+	private void drain() {
+		while (true) {
+			LogRecord record;
+			try {
+				record = queue.take();
+			} catch (InterruptedException e) {
+				// Closed - write what is left
+				while ((record = queue.poll()) != null) {
+					write(record);
+				}
+				synchronized (this) {
+					notifyAll();
+				}
+				return;
+			}
+			write(record);
+			if (queue.isEmpty()) {
+				// Wake flushers only once the queue has run dry
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private void write(LogRecord record) {
+		try {
+			target.append(record);
+		} catch (RuntimeException e) {
+			// A broken appender must not stop the log thread
+		}
+		written++;
+	}
+
+	/**
+	 * Waits until every record appended before the call has been written
+	 * @param timeout the max time to wait, in milliseconds
+	 * @return true if those records were written
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized boolean flush(long timeout) throws InterruptedException {
+		long target = appended.get();
+		long end = System.currentTimeMillis() + timeout;
+		while (written < target && thread != null && thread.isAlive()) {
+			long left = end - System.currentTimeMillis();
+			if (left <= 0) {
+				return false;
+			}
+			wait(left);
+		}
+		return written >= target;
+	}
+
+	/**
+	 * Writes the buffered records and stops the background thread. Later records are dropped.
+	 */
+	public void close() {
+		Thread thread;
+		synchronized (this) {
+			closed = true;
+			thread = this.thread;
+		}
+		if (thread != null && thread != Thread.currentThread()) {
+			thread.interrupt();
+			try {
+				thread.join(5000L);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of records dropped because the buffer was full (or the appender closed)
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of records waiting to be written
+	 */
+	public int getQueued() {
+		return queue.size();
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.log;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Writes records to a print stream (standard error by default), one line each:
+ * {@code time level [thread] logger - message}
+ * @author Afforess
+ *
+ */
+public class ConsoleAppender implements Appender {
+	private final PrintStream out;
+	private final SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+
+	public ConsoleAppender() {
+		this(System.err);
+	}
+
+	public ConsoleAppender(PrintStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public synchronized void append(LogRecord record) {
+		StringBuilder sb = new StringBuilder(128);
+		sb.append(format.format(new Date(record.timestamp))).append(' ').append(record.level);
+		sb.append(" [").append(record.thread).append("] ").append(record.logger).append(" - ");
+		sb.append(record.getMessage());
+		out.println(sb);
+		if (record.throwable != null) {
+			record.throwable.printStackTrace(out);
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named logger with a level, an optional sample rate and an {@link Appender}.
+ * <p>
+ * Messages are "{}" templates; they are only formatted once a record is actually written (on the
+ * appender thread when using an {@link AsyncAppender}), so disabled and sampled-out calls cost a
+ * level check and nothing else. The one and two argument overloads avoid varargs arrays.
+ * @author Afforess
+ *
+ */
+public class Log {
+	public static enum Level {
+		TRACE, DEBUG, INFO, WARN, ERROR, OFF
+	}
+
+	private static Appender defaultAppender;
+
+	private final String name;
+	private volatile Level level = Level.INFO;
+	private volatile Appender appender;
+	private volatile int sampleRate = 1;
+	private final AtomicLong sampled = new AtomicLong();
+
+	/**
+	 * Creates a logger writing to the default appender
+	 * @param name the logger name
+	 */
+	public Log(String name) {
+		this(name, getDefaultAppender());
+	}
+
+	/**
+	 * Creates a logger
+	 * @param name the logger name
+	 * @param appender where records are written
+	 */
+	public Log(String name, Appender appender) {
+		this.name = name;
+		this.appender = appender;
+	}
+
+	/**
+	 * @return the appender new loggers write to: an {@link AsyncAppender} over a
+	 * {@link ConsoleAppender}, unless set with {@link #setDefaultAppender(Appender)}
+	 */
+	public static synchronized Appender getDefaultAppender() {
+		if (defaultAppender == null) {
+			defaultAppender = new AsyncAppender(new ConsoleAppender());
+		}
+		return defaultAppender;
+	}
+
+	public static synchronized void setDefaultAppender(Appender appender) {
+		defaultAppender = appender;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * @param level the lowest level written
+	 */
+	public void setLevel(Level level) {
+		this.level = level;
+	}
+
+	public Appender getAppender() {
+		return appender;
+	}
+
+	public void setAppender(Appender appender) {
+		this.appender = appender;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Writes only one in every {@code sampleRate} TRACE, DEBUG and INFO records, so diagnostics can
+	 * be left on under load. Warnings and errors are always written.
+	 * @param sampleRate 1 to write every record
+	 */
+	public void setSampleRate(int sampleRate) {
+		if (sampleRate < 1) {
+			throw new IllegalArgumentException("Sample rate must be at least 1: " + sampleRate);
+		}
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * @param level the level
+	 * @return whether records of the level are written (before sampling)
+	 */
+	public boolean isEnabled(Level level) {
+		return level.ordinal() >= this.level.ordinal() && level != Level.OFF;
+	}
+
+	public void trace(String message) {
+		log(Level.TRACE, message, null, null, 0, null);
+	}
+
+	public void trace(String message, Object arg) {
+		log(Level.TRACE, message, arg, null, 1, null);
+	}
+
+	public void trace(String message, Object arg1, Object arg2) {
+		log(Level.TRACE, message, arg1, arg2, 2, null);
+	}
+
+	public void debug(String message) {
+		log(Level.DEBUG, message, null, null, 0, null);
+	}
+
+	public void debug(String message, Object arg) {
+		log(Level.DEBUG, message, arg, null, 1, null);
+	}
+
+	public void debug(String message, Object arg1, Object arg2) {
+		log(Level.DEBUG, message, arg1, arg2, 2, null);
+	}
+
+	public void info(String message) {
+		log(Level.INFO, message, null, null, 0, null);
+	}
+
+	public void info(String message, Object arg) {
+		log(Level.INFO, message, arg, null, 1, null);
+	}
+
+	public void info(String message, Object arg1, Object arg2) {
+		log(Level.INFO, message, arg1, arg2, 2, null);
+	}
+
+	public void warn(String message) {
+		log(Level.WARN, message, null, null, 0, null);
+	}
+
+	public void warn(String message, Object arg) {
+		log(Level.WARN, message, arg, null, 1, null);
+	}
+
+	public void warn(String message, Object arg1, Object arg2) {
+		log(Level.WARN, message, arg1, arg2, 2, null);
+	}
+
+	public void warn(String message, Throwable t) {
+		log(Level.WARN, message, null, null, 0, t);
+	}
+
+	public void error(String message) {
+		log(Level.ERROR, message, null, null, 0, null);
+	}
+
+	public void error(String message, Object arg) {
+		log(Level.ERROR, message, arg, null, 1, null);
+	}
+
+	public void error(String message, Throwable t) {
+		log(Level.ERROR, message, null, null, 0, t);
+	}
+
+	private void log(Level level, String message, Object arg1, Object arg2, int args, Throwable t) {
+		if (!isEnabled(level)) {
+			return;
+		}
+		int rate = sampleRate;
+		if (rate > 1 && level.ordinal() < Level.WARN.ordinal() && sampled.getAndIncrement() % rate != 0) {
+			return;
+		}
+		Object[] values = args == 0 ? LogRecord.NO_ARGS : args == 1 ? new Object[] {arg1} : new Object[] {arg1, arg2};
+		appender.append(new LogRecord(level, name, message, values, t));
+	}
+}
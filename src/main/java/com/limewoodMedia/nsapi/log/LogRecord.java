@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.log;
+
+/**
+ * One log record, with its message still unformatted
+ * @author Afforess
+ *
+ */
+public class LogRecord {
+	static final Object[] NO_ARGS = new Object[0];
+
+	public final Log.Level level;
+	public final String logger;
+	public final long timestamp;
+	public final String thread;
+	public final String template;
+	public final Object[] args;
+	public final Throwable throwable;
+
+	public LogRecord(Log.Level level, String logger, String template, Object[] args, Throwable throwable) {
+		this.level = level;
+		this.logger = logger;
+		this.timestamp = System.currentTimeMillis();
+		this.thread = Thread.currentThread().getName();
+		this.template = template;
+		this.args = args;
+		this.throwable = throwable;
+	}
+
+	/**
+	 * @return the message, with each "{}" in the template replaced by the next argument
+	 */
+	public String getMessage() {
+		if (args.length == 0) {
+			return template;
+		}
+		StringBuilder sb = new StringBuilder(template.length() + 32);
+		int from = 0;
+		for (Object arg : args) {
+			int at = template.indexOf("{}", from);
+			if (at < 0) {
+				break;
+			}
+			sb.append(template, from, at).append(arg);
+			from = at + 2;
+		}
+		return sb.append(template, from, template.length()).toString();
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.metrics;
+
+/**
+ * The phases and outcome of one finished API call, as passed to a {@link CallListener}.
+ * Durations are in nanoseconds, and 0 for phases the call did not reach.
+ * @author Afforess
+ *
+ */
+public class CallEvent {
+	public Metrics.Endpoint endpoint;
+	/** The requested shards joined by '+', or an empty string */
+	public String shards;
+	/** The request URL with names, keys and ids replaced by '*', or null if no request was sent */
+	public String urlTemplate;
+	/** The HTTP status, or -1 if no response was received */
+	public int status = -1;
+	/** Bytes read over all attempts */
+	public long bytesRead;
+	/** Attempts repeated by the retry policy */
+	public int retries;
+	/** Time spent checking the rate limiter */
+	public long rateLimitWait;
+	/** Whether the rate limiter refused the call */
+	public boolean rateLimited;
+	/** The wait for a scheduler permit and the time until the request was sent */
+	public long queueTime;
+	public long networkTime;
+	public long parseTime;
+	/** Includes the wait for a scheduler permit */
+	public long totalTime;
+	/** The error the call failed with, or null */
+	public Throwable failure;
+}
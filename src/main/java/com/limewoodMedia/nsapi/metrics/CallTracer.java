@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.metrics;
+
+/**
+ * A {@link CallListener} that is also told when a call and each of its phases start and end, on
+ * the calling thread, e.g. to emit flight recorder events with real durations. A phase ends when
+ * the next one starts, when the attempt is retried or when the call ends.
+ * @author Afforess
+ *
+ */
+public interface CallTracer extends CallListener {
+	/**
+	 * The phases of an attempt
+	 */
+	public static enum Phase {
+		/** Admitting the call through the request scheduler and the rate limiter */
+		RATE_LIMIT,
+		/** Sending the request and waiting for the response headers */
+		REQUEST,
+		/** Reading and parsing the response body */
+		PARSE
+	}
+
+	/**
+	 * @param endpoint the endpoint of the call that started
+	 */
+	public void callStarted(Metrics.Endpoint endpoint);
+
+	public void phaseStarted(Phase phase);
+
+	public void phaseEnded(Phase phase);
+}
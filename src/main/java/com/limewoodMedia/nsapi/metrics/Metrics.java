@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.metrics;
+
+import com.limewoodMedia.nsapi.enums.IShards;
+import com.limewoodMedia.nsapi.exceptions.RateLimitReachedException;
+import com.limewoodMedia.nsapi.exceptions.UnknownNationException;
+import com.limewoodMedia.nsapi.exceptions.UnknownRegionException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Call counters, phase latencies and gauges of a {@link com.limewoodMedia.nsapi.NationStates} instance.
+ * <p>
+ * Calls are grouped by endpoint and shard set. Every call records three phases: queue (the wait
+ * for a {@link com.limewoodMedia.nsapi.RequestScheduler} permit, plus the time from the call until
+ * the request is sent), network (until the response headers arrive) and parse (reading
+ * and parsing the body). Read everything with {@link #getValues()}, or register the registry as
+ * an MBean with {@link #registerMBean(String)}.
+ * @author Afforess
+ *
+ */
+public class Metrics {
+	private static final Pattern URL_VALUES = Pattern.compile(
+			"([?&;](?:nation|region|checksum|token|client|tgid|key|to|view|limit|sinceid)=)[^&;]*");
+
+	/**
+	 * The kinds of API call
+	 */
+	public static enum Endpoint {
+		NATION, REGION, WA, WORLD, HAPPENINGS, VERIFY, TELEGRAM
+	}
+
+	/**
+	 * The counters and histograms of one endpoint and shard set
+	 */
+	public static class CallMetrics {
+		public final AtomicLong calls = new AtomicLong();
+		/** Attempts repeated by the retry policy */
+		public final AtomicLong retries = new AtomicLong();
+		/** Calls refused because of the rate limit (locally or by a 429) */
+		public final AtomicLong rateLimited = new AtomicLong();
+		/** 429 responses */
+		public final AtomicLong http429s = new AtomicLong();
+		public final AtomicLong unknownEntities = new AtomicLong();
+		public final AtomicLong parseFailures = new AtomicLong();
+		public final AtomicLong ioFailures = new AtomicLong();
+		public final AtomicLong otherFailures = new AtomicLong();
+		public final AtomicLong bytesRead = new AtomicLong();
+		public final LatencyHistogram queue = new LatencyHistogram();
+		public final LatencyHistogram network = new LatencyHistogram();
+		public final LatencyHistogram parse = new LatencyHistogram();
+		public final LatencyHistogram total = new LatencyHistogram();
+	}
+
+	/**
+	 * One call in progress
+	 */
+	public final class Call {
+		private final Endpoint endpoint;
+		private final String shards;
+		private final CallMetrics metrics;
+		private final CallListener listener;
+		private final CallTracer tracer;
+		private final long start = System.nanoTime();
+		private CallTracer.Phase phase;
+		private long rateLimitWait;
+		private long scheduled;
+		private boolean rateLimited;
+		private String url;
+		private CountingInputStream body;
+		private int status = -1;
+		private long sent;
+		private long received;
+		private Throwable failure;
+		private int retries;
+		private long previousBytes;
+
+		private Call(Endpoint endpoint, String shards, CallMetrics metrics, CallListener listener) {
+			this.endpoint = endpoint;
+			this.shards = shards;
+			this.metrics = metrics;
+			this.listener = listener;
+			this.tracer = listener instanceof CallTracer ? (CallTracer) listener : null;
+		}
+
+		private void enter(CallTracer.Phase next) {
+			if (tracer != null) {
+				leave();
+				phase = next;
+				tracer.phaseStarted(next);
+			}
+		}
+
+		private void leave() {
+			if (phase != null) {
+				CallTracer.Phase ended = phase;
+				phase = null;
+				tracer.phaseEnded(ended);
+			}
+		}
+
+		/**
+		 * Records a wait for a scheduler permit made before the call or one of its retries
+		 * @param nanos the wait
+		 */
+		public void queued(long nanos) {
+			scheduled += nanos;
+		}
+
+		/**
+		 * Marks the start of a rate limiter check
+		 */
+		public void rateLimitStarted() {
+			enter(CallTracer.Phase.RATE_LIMIT);
+		}
+
+		/**
+		 * Records a rate limiter check
+		 * @param nanos how long the check took
+		 * @param acquired whether the call was allowed
+		 */
+		public void rateLimitChecked(long nanos, boolean acquired) {
+			rateLimitWait += nanos;
+			rateLimited |= !acquired;
+			leave();
+		}
+
+		/**
+		 * Marks the request as sent
+		 * @param url the request URL
+		 */
+		public void requestSent(String url) {
+			enter(CallTracer.Phase.REQUEST);
+			this.url = url;
+			sent = System.nanoTime();
+		}
+
+		/**
+		 * Marks the response headers as received
+		 * @param status the HTTP status
+		 * @param body the response body
+		 * @return the body, counting the bytes read from it
+		 */
+		public InputStream responseReceived(int status, InputStream body) {
+			received = System.nanoTime();
+			enter(CallTracer.Phase.PARSE);
+			this.status = status;
+			if (status == 429) {
+				metrics.http429s.incrementAndGet();
+			}
+			this.body = new CountingInputStream(body);
+			return this.body;
+		}
+
+		/**
+		 * Records a failed attempt that is about to be repeated. The network and parse phases
+		 * recorded are those of the last attempt.
+		 */
+		public void retrying() {
+			leave();
+			metrics.retries.incrementAndGet();
+			retries++;
+			if (body != null) {
+				previousBytes += body.count;
+				body = null;
+			}
+			sent = 0;
+			received = 0;
+			status = -1;
+		}
+
+		/**
+		 * Records why the call failed
+		 * @param e the error
+		 */
+		public void failed(Throwable e) {
+			failure = e;
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			if (e instanceof RateLimitReachedException) {
+				metrics.rateLimited.incrementAndGet();
+			} else if (e instanceof UnknownNationException || e instanceof UnknownRegionException) {
+				metrics.unknownEntities.incrementAndGet();
+			} else if (cause instanceof XmlPullParserException || cause instanceof NumberFormatException) {
+				metrics.parseFailures.incrementAndGet();
+			} else if (cause instanceof IOException) {
+				metrics.ioFailures.incrementAndGet();
+			} else {
+				metrics.otherFailures.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Ends the call, recording the phases that were reached
+		 */
+		public void end() {
+			current.remove();
+			long end = System.nanoTime();
+			leave();
+			long queue = scheduled, network = 0, parse = 0;
+			if (sent != 0) {
+				queue += sent - start;
+				if (received != 0) {
+					network = received - sent;
+					parse = end - received;
+					metrics.network.record(network);
+					if (failure == null) {
+						metrics.parse.record(parse);
+					}
+				}
+			}
+			if (sent != 0 || scheduled != 0) {
+				metrics.queue.record(queue);
+			}
+			long bytes = previousBytes + (body != null ? body.count : 0);
+			metrics.bytesRead.addAndGet(bytes);
+			if (failure == null) {
+				metrics.total.record(end - start + scheduled);
+			}
+			if (listener != null) {
+				CallEvent event = new CallEvent();
+				event.endpoint = endpoint;
+				event.shards = shards;
+				event.urlTemplate = url != null ? URL_VALUES.matcher(url).replaceAll("$1*") : null;
+				event.status = status;
+				event.bytesRead = bytes;
+				event.retries = retries;
+				event.rateLimitWait = rateLimitWait;
+				event.rateLimited = rateLimited;
+				event.queueTime = queue;
+				event.networkTime = network;
+				event.parseTime = parse;
+				event.totalTime = end - start + scheduled;
+				event.failure = failure;
+				listener.callEnded(event);
+			}
+		}
+	}
+
+	private final ConcurrentMap<String, CallMetrics> calls = new ConcurrentHashMap<String, CallMetrics>();
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+	private final ThreadLocal<Call> current = new ThreadLocal<Call>();
+	private volatile CallListener listener;
+
+	/**
+	 * Starts a call on the current thread
+	 * @param endpoint the endpoint
+	 * @param shards the requested shards
+	 * @return the call, to be ended in a finally block
+	 */
+	public Call begin(Endpoint endpoint, IShards... shards) {
+		StringBuilder names = new StringBuilder();
+		for (int i = 0; i < shards.length; i++) {
+			if (i > 0) {
+				names.append('+');
+			}
+			names.append(shards[i].getName());
+		}
+		String key = endpoint.name().toLowerCase();
+		if (shards.length > 0) {
+			key += "[" + names + "]";
+		}
+		Call call = new Call(endpoint, names.toString(), get(key), listener);
+		call.metrics.calls.incrementAndGet();
+		current.set(call);
+		if (call.tracer != null) {
+			call.tracer.callStarted(endpoint);
+		}
+		return call;
+	}
+
+	/**
+	 * @return the call in progress on the current thread, or null
+	 */
+	public Call current() {
+		return current.get();
+	}
+
+	/**
+	 * @param key an endpoint and shard set, e.g. "nation[name+region]"
+	 * @return its metrics (created if needed)
+	 */
+	public CallMetrics get(String key) {
+		CallMetrics metrics = calls.get(key);
+		if (metrics == null) {
+			CallMetrics created = new CallMetrics();
+			metrics = calls.putIfAbsent(key, created);
+			if (metrics == null) {
+				metrics = created;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Sets a listener notified of every finished call (and, for a {@link CallTracer}, of the
+	 * start of every call and phase). Calls already in progress keep the previous listener.
+	 * @param listener the listener, or null for none
+	 */
+	public void setListener(CallListener listener) {
+		this.listener = listener;
+	}
+
+	public CallListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Adds (or replaces) a gauge
+	 * @param name the gauge name
+	 * @param gauge the gauge
+	 */
+	public void addGauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	public void removeGauge(String name) {
+		gauges.remove(name);
+	}
+
+	/**
+	 * Reads all metrics. Counters are named {@code <key>.<counter>}, latencies (in milliseconds)
+	 * {@code <key>.<phase>.<statistic>} and gauges by their own names.
+	 * @return the metrics, sorted by name
+	 */
+	public Map<String, Double> getValues() {
+		Map<String, Double> values = new TreeMap<String, Double>();
+		for (Map.Entry<String, CallMetrics> entry : calls.entrySet()) {
+			String key = entry.getKey();
+			CallMetrics m = entry.getValue();
+			put(values, key + ".calls", m.calls.get());
+			put(values, key + ".retries", m.retries.get());
+			put(values, key + ".rateLimited", m.rateLimited.get());
+			put(values, key + ".http429s", m.http429s.get());
+			put(values, key + ".unknownEntities", m.unknownEntities.get());
+			put(values, key + ".parseFailures", m.parseFailures.get());
+			put(values, key + ".ioFailures", m.ioFailures.get());
+			put(values, key + ".otherFailures", m.otherFailures.get());
+			put(values, key + ".bytesRead", m.bytesRead.get());
+			putLatency(values, key + ".queue", m.queue);
+			putLatency(values, key + ".network", m.network);
+			putLatency(values, key + ".parse", m.parse);
+			putLatency(values, key + ".total", m.total);
+		}
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			put(values, entry.getKey(), entry.getValue().getValue());
+		}
+		return values;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server
+	 * @param name the object name, e.g. "com.limewoodMedia.nsapi:type=Metrics"
+	 * @throws JMException if the MBean could not be registered
+	 */
+	public void registerMBean(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), new ObjectName(name));
+	}
+
+	private static void put(Map<String, Double> values, String name, double value) {
+		values.put(name, Double.valueOf(value));
+	}
+
+	private static void putLatency(Map<String, Double> values, String name, LatencyHistogram histogram) {
+		put(values, name + ".count", histogram.getCount());
+		put(values, name + ".mean", histogram.getMean());
+		put(values, name + ".p50", histogram.getPercentile(50));
+		put(values, name + ".p90", histogram.getPercentile(90));
+		put(values, name + ".p99", histogram.getPercentile(99));
+		put(values, name + ".max", histogram.getMax());
+	}
+}
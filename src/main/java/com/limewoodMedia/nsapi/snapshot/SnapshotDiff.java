@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.snapshot;
+
+import com.limewoodMedia.nsapi.enums.WAStatus;
+import com.limewoodMedia.nsapi.holders.NationData;
+import com.limewoodMedia.nsapi.holders.RegionData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the changes between two world snapshots (from dumps or from the API).
+ * Both snapshots are first spilled to disk in hash partitions by nation/region name,
+ * then the partitions are compared in parallel, so only a few partitions are ever in memory.
+ * Changes are delivered to the listener on the calling thread, one partition at a time.
+ * @author Afforess
+ *
+ */
+public class SnapshotDiff {
+	public static final int DEFAULT_PARTITIONS = 64;
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Receives the changes found by a diff
+	 */
+	public static interface Listener {
+		public void onChange(WorldChange change);
+	}
+
+	private final File workDirectory;
+	private final int partitions;
+	private final ExecutorService executor;
+	private final int parallelism;
+	private float censusThreshold = 0f;
+
+	/**
+	 * Creates a diff engine with the default number of partitions, using one thread per core
+	 * @param workDirectory where to spill the partitions
+	 */
+	public SnapshotDiff(File workDirectory) {
+		this(workDirectory, DEFAULT_PARTITIONS, null, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a diff engine
+	 * @param workDirectory where to spill the partitions
+	 * @param partitions the number of partitions - more partitions use less memory per partition
+	 * @param executor to compare the partitions on, or null to create a pool for each diff
+	 * @param parallelism the number of partitions to compare at the same time
+	 */
+	public SnapshotDiff(File workDirectory, int partitions, ExecutorService executor, int parallelism) {
+		if (partitions < 1 || parallelism < 1) {
+			throw new IllegalArgumentException("Partitions and parallelism must be at least 1");
+		}
+		this.workDirectory = workDirectory;
+		this.partitions = partitions;
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the smallest census score change that is reported
+	 */
+	public synchronized float getCensusThreshold() {
+		return censusThreshold;
+	}
+
+	/**
+	 * Sets the smallest census score change that is reported (default is any change)
+	 * @param censusThreshold the threshold
+	 */
+	public synchronized void setCensusThreshold(float censusThreshold) {
+		this.censusThreshold = censusThreshold;
+	}
+
+	/**
+	 * Compares two snapshots of nations
+	 * Fields that are missing (null) in either snapshot are not compared.
+	 * @param before the older snapshot
+	 * @param after the newer snapshot
+	 * @param listener to receive the changes
+	 * @return the number of changes found
+	 * @throws IOException if the partitions could not be written or read
+	 */
+	public int diffNations(Iterator<NationData> before, Iterator<NationData> after, Listener listener)
+		throws IOException {
+		return diff(new NationKind(getCensusThreshold()), before, after, listener);
+	}
+
+	/**
+	 * Compares two snapshots of regions
+	 * Fields that are missing (null) in either snapshot are not compared.
+	 * @param before the older snapshot
+	 * @param after the newer snapshot
+	 * @param listener to receive the changes
+	 * @return the number of changes found
+	 * @throws IOException if the partitions could not be written or read
+	 */
+	public int diffRegions(Iterator<RegionData> before, Iterator<RegionData> after, Listener listener)
+		throws IOException {
+		return diff(new RegionKind(), before, after, listener);
+	}
+
+	private <T, R extends Record> int diff(final Kind<T, R> kind, Iterator<T> before, Iterator<T> after,
+			Listener listener) throws IOException {
+		final File dir = File.createTempFile("nsdiff", "", workDirectory);
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Could not create work directory " + dir);
+		}
+		ExecutorService pool = executor != null ? executor : Executors.newFixedThreadPool(parallelism);
+		LinkedList<Future<List<WorldChange>>> pending = new LinkedList<Future<List<WorldChange>>>();
+		int count = 0;
+		try {
+			final int[] beforeCounts = spill(kind, before, dir, "before-");
+			final int[] afterCounts = spill(kind, after, dir, "after-");
+			for (int i = 0; i < partitions; i++) {
+				final int partition = i;
+				pending.add(pool.submit(new Callable<List<WorldChange>>() {
+					@Override
+					public List<WorldChange> call() throws Exception {
+						return compare(kind, new File(dir, "before-" + partition), beforeCounts[partition],
+								new File(dir, "after-" + partition), afterCounts[partition]);
+					}
+				}));
+				while (!pending.isEmpty() && (pending.size() > parallelism * 2 || pending.getFirst().isDone())) {
+					count += deliver(pending.removeFirst(), listener);
+				}
+			}
+			while (!pending.isEmpty()) {
+				count += deliver(pending.removeFirst(), listener);
+			}
+			return count;
+		} finally {
+			for (Future<List<WorldChange>> f : pending) {
+				f.cancel(true);
+			}
+			if (pool != executor) {
+				pool.shutdownNow();
+			}
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					f.delete();
+				}
+			}
+			dir.delete();
+		}
+	}
+
+	private <T, R extends Record> int[] spill(Kind<T, R> kind, Iterator<T> items, File dir, String prefix)
+		throws IOException {
+		DataOutputStream[] out = new DataOutputStream[partitions];
+		int[] counts = new int[partitions];
+		try {
+			for (int i = 0; i < partitions; i++) {
+				out[i] = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(new File(dir, prefix + i)), BUFFER_SIZE));
+			}
+			while (items.hasNext()) {
+				T item = items.next();
+				String name = kind.name(item);
+				if (name == null) {
+					continue;
+				}
+				int partition = (key(name).hashCode() & 0x7fffffff) % partitions;
+				kind.write(item, out[partition]);
+				counts[partition]++;
+			}
+		} finally {
+			for (DataOutputStream o : out) {
+				if (o != null) {
+					o.close();
+				}
+			}
+		}
+		return counts;
+	}
+
+	private static <T, R extends Record> List<WorldChange> compare(Kind<T, R> kind, File beforeFile, int beforeCount,
+			File afterFile, int afterCount) throws IOException {
+		Map<String, R> before = new HashMap<String, R>(beforeCount * 2);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(beforeFile), BUFFER_SIZE));
+		try {
+			for (int i = 0; i < beforeCount; i++) {
+				R record = kind.read(in);
+				before.put(key(record.name), record);
+			}
+		} finally {
+			in.close();
+		}
+		List<WorldChange> changes = new ArrayList<WorldChange>();
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(afterFile), BUFFER_SIZE));
+		try {
+			for (int i = 0; i < afterCount; i++) {
+				R record = kind.read(in);
+				R old = before.remove(key(record.name));
+				if (old == null) {
+					kind.added(record, changes);
+				} else {
+					kind.changed(old, record, changes);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		for (R old : before.values()) {
+			kind.removed(old, changes);
+		}
+		return changes;
+	}
+
+	private static int deliver(Future<List<WorldChange>> future, Listener listener) throws IOException {
+		List<WorldChange> changes;
+		try {
+			changes = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while comparing snapshots");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new RuntimeException("Failed to compare snapshots", cause);
+		}
+		for (WorldChange change : changes) {
+			listener.onChange(change);
+		}
+		return changes.size();
+	}
+
+	/**
+	 * @return the name as an id (lower case, underscores for spaces)
+	 */
+	static String key(String name) {
+		return name.toLowerCase().replace(' ', '_');
+	}
+
+	private static boolean differs(String before, String after) {
+		return before != null && after != null && !key(before).equals(key(after));
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		out.writeBoolean(str != null);
+		if (str != null) {
+			out.writeUTF(str);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static class Record {
+		String name;
+	}
+
+	/**
+	 * How one kind of snapshot item is spilled and compared
+	 */
+	private static abstract class Kind<T, R extends Record> {
+		abstract String name(T item);
+		abstract void write(T item, DataOutputStream out) throws IOException;
+		abstract R read(DataInputStream in) throws IOException;
+		abstract void added(R record, List<WorldChange> changes);
+		abstract void removed(R record, List<WorldChange> changes);
+		abstract void changed(R before, R after, List<WorldChange> changes);
+	}
+
+	private static final class NationRecord extends Record {
+		String region;
+		String category;
+		WAStatus status;
+		String[] endorsements;
+		int[] censusIds;
+		float[] censusScores;
+	}
+
+	private static final class NationKind extends Kind<NationData, NationRecord> {
+		private static final WAStatus[] STATUSES = WAStatus.values();
+		private final float censusThreshold;
+
+		NationKind(float censusThreshold) {
+			this.censusThreshold = censusThreshold;
+		}
+
+		@Override
+		String name(NationData item) {
+			return item.name;
+		}
+
+		@Override
+		void write(NationData nation, DataOutputStream out) throws IOException {
+			out.writeUTF(nation.name);
+			writeString(out, nation.region);
+			writeString(out, nation.category);
+			out.writeByte(nation.worldAssemblyStatus != null ? nation.worldAssemblyStatus.ordinal() : -1);
+			if (nation.endorsements == null) {
+				out.writeInt(-1);
+			} else {
+				int count = 0;
+				for (String e : nation.endorsements) {
+					if (e.length() > 0) {
+						count++;
+					}
+				}
+				out.writeInt(count);
+				for (String e : nation.endorsements) {
+					if (e.length() > 0) {
+						out.writeUTF(e);
+					}
+				}
+			}
+			if (nation.censusScore == null) {
+				out.writeInt(0);
+			} else {
+				out.writeInt(nation.censusScore.size());
+				for (Map.Entry<Integer, Float> score : nation.censusScore.entrySet()) {
+					out.writeInt(score.getKey().intValue());
+					out.writeFloat(score.getValue().floatValue());
+				}
+			}
+		}
+
+		@Override
+		NationRecord read(DataInputStream in) throws IOException {
+			NationRecord r = new NationRecord();
+			r.name = in.readUTF();
+			r.region = readString(in);
+			r.category = readString(in);
+			byte status = in.readByte();
+			r.status = status >= 0 ? STATUSES[status] : null;
+			int endorsements = in.readInt();
+			if (endorsements >= 0) {
+				r.endorsements = new String[endorsements];
+				for (int i = 0; i < endorsements; i++) {
+					r.endorsements[i] = in.readUTF();
+				}
+			}
+			int scores = in.readInt();
+			r.censusIds = new int[scores];
+			r.censusScores = new float[scores];
+			for (int i = 0; i < scores; i++) {
+				r.censusIds[i] = in.readInt();
+				r.censusScores[i] = in.readFloat();
+			}
+			return r;
+		}
+
+		@Override
+		void added(NationRecord nation, List<WorldChange> changes) {
+			changes.add(new WorldChange(WorldChange.Type.NATION_FOUNDED, nation.name, null, nation.region));
+		}
+
+		@Override
+		void removed(NationRecord nation, List<WorldChange> changes) {
+			changes.add(new WorldChange(WorldChange.Type.NATION_CEASED, nation.name, nation.region, null));
+		}
+
+		@Override
+		void changed(NationRecord before, NationRecord after, List<WorldChange> changes) {
+			String name = after.name;
+			if (differs(before.region, after.region)) {
+				changes.add(new WorldChange(WorldChange.Type.REGION_MOVE, name, before.region, after.region));
+			}
+			if (before.category != null && after.category != null && !before.category.equals(after.category)) {
+				changes.add(new WorldChange(WorldChange.Type.CATEGORY_CHANGE, name, before.category, after.category));
+			}
+			if (before.status != null && after.status != null && before.status != after.status) {
+				boolean wasMember = before.status != WAStatus.NON_MEMBER;
+				boolean isMember = after.status != WAStatus.NON_MEMBER;
+				WorldChange.Type type = wasMember == isMember ? WorldChange.Type.WA_STATUS_CHANGE
+						: (isMember ? WorldChange.Type.WA_JOIN : WorldChange.Type.WA_LEAVE);
+				changes.add(new WorldChange(type, name, before.status.toString(), after.status.toString()));
+			}
+			if (before.endorsements != null && after.endorsements != null) {
+				Set<String> old = new HashSet<String>();
+				for (String e : before.endorsements) {
+					old.add(key(e));
+				}
+				for (String e : after.endorsements) {
+					if (!old.remove(key(e))) {
+						changes.add(new WorldChange(WorldChange.Type.ENDORSEMENT_ADDED, name, null, e));
+					}
+				}
+				for (String e : old) {
+					changes.add(new WorldChange(WorldChange.Type.ENDORSEMENT_REMOVED, name, e, null));
+				}
+			}
+			for (int i = 0; i < after.censusIds.length; i++) {
+				for (int j = 0; j < before.censusIds.length; j++) {
+					if (before.censusIds[j] == after.censusIds[i]) {
+						float delta = after.censusScores[i] - before.censusScores[j];
+						if (delta != 0f && Math.abs(delta) >= censusThreshold) {
+							changes.add(new WorldChange(WorldChange.Type.CENSUS_DELTA, name,
+									String.valueOf(before.censusScores[j]), String.valueOf(after.censusScores[i]),
+									after.censusIds[i], delta));
+						}
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private static final class RegionRecord extends Record {
+		String delegate;
+		String founder;
+		/** -1 if the snapshot did not have it */
+		int numNations;
+	}
+
+	private static final class RegionKind extends Kind<RegionData, RegionRecord> {
+		@Override
+		String name(RegionData item) {
+			return item.name;
+		}
+
+		@Override
+		void write(RegionData region, DataOutputStream out) throws IOException {
+			out.writeUTF(region.name);
+			writeString(out, region.delegate);
+			writeString(out, region.founder);
+			out.writeInt(numNations(region));
+		}
+
+		/**
+		 * numNations is a primitive, so a region fetched without the NUMNATIONS shard reads 0;
+		 * count its nations list instead if it has one, and write -1 if it has neither
+		 */
+		private static int numNations(RegionData region) {
+			if (region.numNations != 0) {
+				return region.numNations;
+			}
+			return region.nations != null ? region.nations.length : -1;
+		}
+
+		@Override
+		RegionRecord read(DataInputStream in) throws IOException {
+			RegionRecord r = new RegionRecord();
+			r.name = in.readUTF();
+			r.delegate = readString(in);
+			r.founder = readString(in);
+			r.numNations = in.readInt();
+			return r;
+		}
+
+		@Override
+		void added(RegionRecord region, List<WorldChange> changes) {
+			changes.add(new WorldChange(WorldChange.Type.REGION_FOUNDED, region.name, null, region.founder));
+		}
+
+		@Override
+		void removed(RegionRecord region, List<WorldChange> changes) {
+			changes.add(new WorldChange(WorldChange.Type.REGION_CEASED, region.name, region.founder, null));
+		}
+
+		@Override
+		void changed(RegionRecord before, RegionRecord after, List<WorldChange> changes) {
+			if (differs(before.delegate, after.delegate)) {
+				changes.add(new WorldChange(WorldChange.Type.DELEGATE_CHANGE, after.name, before.delegate, after.delegate));
+			}
+			if (differs(before.founder, after.founder)) {
+				changes.add(new WorldChange(WorldChange.Type.FOUNDER_CHANGE, after.name, before.founder, after.founder));
+			}
+			if (before.numNations >= 0 && after.numNations >= 0 && before.numNations != after.numNations) {
+				changes.add(new WorldChange(WorldChange.Type.NATION_COUNT_CHANGE, after.name,
+						String.valueOf(before.numNations), String.valueOf(after.numNations),
+						-1, after.numNations - before.numNations));
+			}
+		}
+	}
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.snapshot;
+
+import com.limewoodMedia.nsapi.enums.WAStatus;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a snapshot written by {@link SnapshotWriter}.
+ * The columns are memory-mapped and read in place, so scanning the whole world
+ * touches no objects on the heap except for the strings actually looked up.
+ * Instances are safe to share between threads.
+ * <p>
+ * Example - all nations in a region with a population above 1000 (million):
+ * <pre>
+ * final int region = snapshot.lookup("The Pacific");
+ * int[] rows = snapshot.select(new SnapshotReader.RowFilter() {
+ *     public boolean accept(SnapshotReader s, int row) {
+ *         return s.getRegionId(row) == region &amp;&amp; s.getPopulation(row) &gt; 1000;
+ *     }
+ * });
+ * </pre>
+ * @author Afforess
+ *
+ */
+public class SnapshotReader {
+	/**
+	 * Filter for selecting rows of a snapshot
+	 */
+	public static interface RowFilter {
+		/**
+		 * @param snapshot the snapshot being scanned
+		 * @param row the row to test
+		 * @return true to select the row
+		 */
+		public boolean accept(SnapshotReader snapshot, int row);
+	}
+
+	private static final WAStatus[] WA_STATUSES = WAStatus.values();
+
+	private final int rows;
+	private final int dictionarySize;
+	private final int[] censusIds;
+	private final IntBuffer dictionaryIndex;
+	private final ByteBuffer dictionaryData;
+	private final IntBuffer name;
+	private final IntBuffer region;
+	private final IntBuffer category;
+	private final ByteBuffer waStatus;
+	private final IntBuffer population;
+	private final IntBuffer taxRate;
+	private final FloatBuffer publicSector;
+	private final LongBuffer firstLogin;
+	private final LongBuffer lastLogin;
+	private final FloatBuffer[] census;
+
+	private SnapshotReader(File directory) throws IOException {
+		DataInputStream meta = new DataInputStream(new FileInputStream(new File(directory, SnapshotWriter.META)));
+		try {
+			if (meta.readInt() != SnapshotWriter.MAGIC) {
+				throw new IOException("Not a snapshot: " + directory);
+			}
+			int version = meta.readInt();
+			if (version != SnapshotWriter.VERSION) {
+				throw new IOException("Unsupported snapshot version " + version);
+			}
+			rows = meta.readInt();
+			dictionarySize = meta.readInt();
+			censusIds = new int[meta.readInt()];
+			for (int i = 0; i < censusIds.length; i++) {
+				censusIds[i] = meta.readInt();
+			}
+		} finally {
+			meta.close();
+		}
+		dictionaryIndex = map(directory, SnapshotWriter.DICTIONARY_INDEX).asIntBuffer();
+		dictionaryData = map(directory, SnapshotWriter.DICTIONARY_DATA);
+		name = map(directory, SnapshotWriter.NAME).asIntBuffer();
+		region = map(directory, SnapshotWriter.REGION).asIntBuffer();
+		category = map(directory, SnapshotWriter.CATEGORY).asIntBuffer();
+		waStatus = map(directory, SnapshotWriter.WA_STATUS);
+		population = map(directory, SnapshotWriter.POPULATION).asIntBuffer();
+		taxRate = map(directory, SnapshotWriter.TAX_RATE).asIntBuffer();
+		publicSector = map(directory, SnapshotWriter.PUBLIC_SECTOR).asFloatBuffer();
+		firstLogin = map(directory, SnapshotWriter.FIRST_LOGIN).asLongBuffer();
+		lastLogin = map(directory, SnapshotWriter.LAST_LOGIN).asLongBuffer();
+		census = new FloatBuffer[censusIds.length];
+		for (int i = 0; i < censusIds.length; i++) {
+			census[i] = map(directory, SnapshotWriter.CENSUS_PREFIX + censusIds[i]
+					+ SnapshotWriter.COLUMN_SUFFIX).asFloatBuffer();
+		}
+		if (name.limit() != rows) {
+			throw new IOException("Snapshot columns do not match the meta data (incomplete snapshot?)");
+		}
+	}
+
+	/**
+	 * Opens a snapshot
+	 * @param directory the snapshot directory
+	 * @return the snapshot
+	 * @throws IOException if the snapshot could not be read
+	 */
+	public static SnapshotReader open(File directory) throws IOException {
+		return new SnapshotReader(directory);
+	}
+
+	private static MappedByteBuffer map(File directory, String file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(new File(directory, file), "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// The mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the number of nations in the snapshot
+	 */
+	public int size() {
+		return rows;
+	}
+
+	/**
+	 * @return the census ids that have a column in the snapshot
+	 */
+	public int[] getCensusIds() {
+		return censusIds.clone();
+	}
+
+	/**
+	 * @return the number of strings in the dictionary
+	 */
+	public int getDictionarySize() {
+		return dictionarySize;
+	}
+
+	/**
+	 * @param id a dictionary id
+	 * @return the string with the id, or null for {@link SnapshotWriter#NO_STRING}
+	 */
+	public String getString(int id) {
+		if (id == SnapshotWriter.NO_STRING) {
+			return null;
+		}
+		int start = dictionaryIndex.get(id);
+		byte[] bytes = new byte[dictionaryIndex.get(id + 1) - start];
+		ByteBuffer data = dictionaryData.duplicate();
+		data.position(start);
+		data.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Looks up the dictionary id of a string (scans the dictionary - do it once per query, not per row)
+	 * @param str the string to look up
+	 * @return the id of the string, or {@link SnapshotWriter#NO_STRING} if it is not in the snapshot
+	 */
+	public int lookup(String str) {
+		byte[] bytes;
+		try {
+			bytes = str.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		int start = dictionaryIndex.get(0);
+		for (int id = 0; id < dictionarySize; id++) {
+			int end = dictionaryIndex.get(id + 1);
+			if (end - start == bytes.length && equals(start, bytes)) {
+				return id;
+			}
+			start = end;
+		}
+		return SnapshotWriter.NO_STRING;
+	}
+
+	private boolean equals(int offset, byte[] bytes) {
+		for (int i = 0; i < bytes.length; i++) {
+			if (dictionaryData.get(offset + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Scans every row of the snapshot
+	 * @param filter the filter selecting rows
+	 * @return the selected rows, in snapshot order
+	 */
+	public int[] select(RowFilter filter) {
+		int[] selected = new int[64];
+		int count = 0;
+		for (int row = 0; row < rows; row++) {
+			if (filter.accept(this, row)) {
+				if (count == selected.length) {
+					int[] grown = new int[count << 1];
+					System.arraycopy(selected, 0, grown, 0, count);
+					selected = grown;
+				}
+				selected[count++] = row;
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(selected, 0, result, 0, count);
+		return result;
+	}
+
+	public int getNameId(int row) {
+		return name.get(row);
+	}
+
+	public String getName(int row) {
+		return getString(name.get(row));
+	}
+
+	public int getRegionId(int row) {
+		return region.get(row);
+	}
+
+	public String getRegion(int row) {
+		return getString(region.get(row));
+	}
+
+	public int getCategoryId(int row) {
+		return category.get(row);
+	}
+
+	public String getCategory(int row) {
+		return getString(category.get(row));
+	}
+
+	/**
+	 * @param row the row
+	 * @return the World Assembly status, or null if it was not known
+	 */
+	public WAStatus getWAStatus(int row) {
+		byte ordinal = waStatus.get(row);
+		return ordinal >= 0 ? WA_STATUSES[ordinal] : null;
+	}
+
+	public int getPopulation(int row) {
+		return population.get(row);
+	}
+
+	public int getTaxRate(int row) {
+		return taxRate.get(row);
+	}
+
+	public float getPublicSector(int row) {
+		return publicSector.get(row);
+	}
+
+	public long getFirstLogin(int row) {
+		return firstLogin.get(row);
+	}
+
+	public long getLastLogin(int row) {
+		return lastLogin.get(row);
+	}
+
+	/**
+	 * @param row the row
+	 * @param censusId the census id
+	 * @return the census score, or NaN if the nation had no score for the census
+	 * @throws IllegalArgumentException if the snapshot has no column for the census
+	 */
+	public float getCensusScore(int row, int censusId) {
+		for (int i = 0; i < censusIds.length; i++) {
+			if (censusIds[i] == censusId) {
+				return census[i].get(row);
+			}
+		}
+		throw new IllegalArgumentException("No column for census " + censusId + " in snapshot");
+	}
+}
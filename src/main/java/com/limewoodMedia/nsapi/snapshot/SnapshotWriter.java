@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.snapshot;
+
+import com.limewoodMedia.nsapi.DumpReader;
+import com.limewoodMedia.nsapi.holders.NationData;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a columnar snapshot of world nation data.
+ * Every numeric NationData field goes to a file of its own as big-endian primitives,
+ * and the names, regions and categories are stored as ids into a shared string dictionary.
+ * The snapshot is read back with {@link SnapshotReader}.
+ * @author Afforess
+ *
+ */
+public class SnapshotWriter implements Closeable, DumpReader.Callback<NationData> {
+	static final int MAGIC = 0x4e534e53; // NSNS
+	static final int VERSION = 1;
+	static final String META = "meta.dat";
+	static final String DICTIONARY_INDEX = "dictionary.idx";
+	static final String DICTIONARY_DATA = "dictionary.dat";
+	static final String NAME = "name.col";
+	static final String REGION = "region.col";
+	static final String CATEGORY = "category.col";
+	static final String WA_STATUS = "wastatus.col";
+	static final String POPULATION = "population.col";
+	static final String TAX_RATE = "taxrate.col";
+	static final String PUBLIC_SECTOR = "publicsector.col";
+	static final String FIRST_LOGIN = "firstlogin.col";
+	static final String LAST_LOGIN = "lastlogin.col";
+	static final String CENSUS_PREFIX = "census-";
+	static final String COLUMN_SUFFIX = ".col";
+	/** Id stored for missing strings */
+	public static final int NO_STRING = -1;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File directory;
+	private final int[] censusIds;
+	private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+	private final List<String> strings = new ArrayList<String>();
+	private final List<DataOutputStream> columns = new ArrayList<DataOutputStream>();
+	private final DataOutputStream name;
+	private final DataOutputStream region;
+	private final DataOutputStream category;
+	private final DataOutputStream waStatus;
+	private final DataOutputStream population;
+	private final DataOutputStream taxRate;
+	private final DataOutputStream publicSector;
+	private final DataOutputStream firstLogin;
+	private final DataOutputStream lastLogin;
+	private final DataOutputStream[] census;
+	private int rows;
+	private boolean closed;
+
+	/**
+	 * Creates a snapshot in the given directory, replacing any snapshot already there
+	 * @param directory the snapshot directory (created if missing)
+	 * @param censusIds the census scores to store a column for
+	 * @throws IOException if the column files could not be created
+	 */
+	public SnapshotWriter(File directory, int...censusIds) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create snapshot directory " + directory);
+		}
+		this.directory = directory;
+		this.censusIds = censusIds.clone();
+		try {
+			name = column(NAME);
+			region = column(REGION);
+			category = column(CATEGORY);
+			waStatus = column(WA_STATUS);
+			population = column(POPULATION);
+			taxRate = column(TAX_RATE);
+			publicSector = column(PUBLIC_SECTOR);
+			firstLogin = column(FIRST_LOGIN);
+			lastLogin = column(LAST_LOGIN);
+			census = new DataOutputStream[censusIds.length];
+			for (int i = 0; i < censusIds.length; i++) {
+				census[i] = column(CENSUS_PREFIX + censusIds[i] + COLUMN_SUFFIX);
+			}
+		} catch (IOException e) {
+			closeColumns();
+			throw e;
+		}
+	}
+
+	private DataOutputStream column(String file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, file)), BUFFER_SIZE));
+		columns.add(out);
+		return out;
+	}
+
+	/**
+	 * Appends a nation to the snapshot
+	 * @param nation the nation to add
+	 * @throws IOException if the nation could not be written
+	 */
+	public void add(NationData nation) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Snapshot already closed");
+		}
+		name.writeInt(intern(nation.name));
+		region.writeInt(intern(nation.region));
+		category.writeInt(intern(nation.category));
+		waStatus.writeByte(nation.worldAssemblyStatus != null ? nation.worldAssemblyStatus.ordinal() : -1);
+		population.writeInt(nation.population);
+		taxRate.writeInt(nation.taxRate);
+		publicSector.writeFloat(nation.publicSector);
+		firstLogin.writeLong(nation.firstLogin);
+		lastLogin.writeLong(nation.lastLogin);
+		for (int i = 0; i < censusIds.length; i++) {
+			Float score = nation.censusScore != null ? nation.censusScore.get(censusIds[i]) : null;
+			census[i].writeFloat(score != null ? score.floatValue() : Float.NaN);
+		}
+		rows++;
+	}
+
+	/**
+	 * Appends a nation to the snapshot, so the writer can be handed to a {@link DumpReader}
+	 * @param nation the nation to add
+	 */
+	@Override
+	public void onRecord(NationData nation) {
+		try {
+			add(nation);
+		} catch (IOException e) {
+			throw new RuntimeException("IOException writing snapshot", e);
+		}
+	}
+
+	/**
+	 * @return the number of nations written so far
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	private int intern(String str) {
+		if (str == null) {
+			return NO_STRING;
+		}
+		Integer id = dictionary.get(str);
+		if (id == null) {
+			id = Integer.valueOf(strings.size());
+			dictionary.put(str, id);
+			strings.add(str);
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Finishes the columns and writes the string dictionary and the meta data
+	 * @throws IOException if the snapshot could not be completed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		closeColumns();
+		DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, DICTIONARY_INDEX)), BUFFER_SIZE));
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, DICTIONARY_DATA)), BUFFER_SIZE));
+		try {
+			int offset = 0;
+			for (String str : strings) {
+				byte[] bytes = str.getBytes("UTF-8");
+				index.writeInt(offset);
+				data.write(bytes);
+				offset += bytes.length;
+			}
+			index.writeInt(offset);
+		} finally {
+			index.close();
+			data.close();
+		}
+		DataOutputStream meta = new DataOutputStream(new FileOutputStream(new File(directory, META)));
+		try {
+			meta.writeInt(MAGIC);
+			meta.writeInt(VERSION);
+			meta.writeInt(rows);
+			meta.writeInt(strings.size());
+			meta.writeInt(censusIds.length);
+			for (int id : censusIds) {
+				meta.writeInt(id);
+			}
+		} finally {
+			meta.close();
+		}
+		dictionary.clear();
+		strings.clear();
+	}
+
+	private void closeColumns() throws IOException {
+		IOException failure = null;
+		for (DataOutputStream out : columns) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		columns.clear();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.snapshot;
+
+/**
+ * A single change between two world snapshots, as found by {@link SnapshotDiff}
+ * @author Afforess
+ *
+ */
+public class WorldChange {
+	public static enum Type {
+		/** A nation exists only in the newer snapshot */
+		NATION_FOUNDED,
+		/** A nation exists only in the older snapshot */
+		NATION_CEASED,
+		/** A nation moved from oldValue to newValue region */
+		REGION_MOVE,
+		/** A nation joined the World Assembly */
+		WA_JOIN,
+		/** A nation left the World Assembly */
+		WA_LEAVE,
+		/** A WA nation became or stopped being a delegate */
+		WA_STATUS_CHANGE,
+		/** The nation in newValue started endorsing the nation */
+		ENDORSEMENT_ADDED,
+		/** The nation in oldValue stopped endorsing the nation */
+		ENDORSEMENT_REMOVED,
+		/** A nation changed category */
+		CATEGORY_CHANGE,
+		/** A census score changed by delta */
+		CENSUS_DELTA,
+		/** A region exists only in the newer snapshot */
+		REGION_FOUNDED,
+		/** A region exists only in the older snapshot */
+		REGION_CEASED,
+		/** A region got a new delegate */
+		DELEGATE_CHANGE,
+		/** A region got a new founder */
+		FOUNDER_CHANGE,
+		/** The number of nations in a region changed by delta */
+		NATION_COUNT_CHANGE
+	}
+
+	public final Type type;
+	/** The nation or region that changed */
+	public final String name;
+	public final String oldValue;
+	public final String newValue;
+	/** The census id for CENSUS_DELTA, otherwise -1 */
+	public final int censusId;
+	public final float delta;
+
+	public WorldChange(Type type, String name, String oldValue, String newValue) {
+		this(type, name, oldValue, newValue, -1, 0f);
+	}
+
+	public WorldChange(Type type, String name, String oldValue, String newValue, int censusId, float delta) {
+		this.type = type;
+		this.name = name;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+		this.censusId = censusId;
+		this.delta = delta;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + name + ": " + oldValue + " -> " + newValue
+				+ (censusId != -1 ? " (census " + censusId + ")" : "")
+				+ (delta != 0f ? " delta " + delta : "");
+	}
+}
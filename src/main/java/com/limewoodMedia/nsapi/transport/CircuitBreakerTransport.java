@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.transport;
+
+import com.limewoodMedia.nsapi.log.Log;
+import com.limewoodMedia.nsapi.metrics.Gauge;
+import com.limewoodMedia.nsapi.metrics.Metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Wraps a transport, failing fast while the API is down or slow.
+ * <p>
+ * Requests are counted over a rolling window. Failures are I/O errors (including errors reading
+ * the body) and server errors (5xx); slow calls are those taking longer than the slow call
+ * duration from sending the request until the body is closed, so a body that trickles in counts
+ * as slow. A call is recorded when its body is closed, so callers must close every body (as
+ * {@link com.limewoodMedia.nsapi.NationStates} does). Once enough calls
+ * were made and either rate passes its threshold the breaker opens, and requests throw a
+ * {@link CircuitOpenException} without being sent. After the open duration a few probe requests
+ * are let through: if they all succeed the breaker closes, otherwise it opens again.
+ * @author Afforess
+ *
+ */
+public class CircuitBreakerTransport implements Transport {
+	public static enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static final int BUCKETS = 10;
+
+	private final Transport transport;
+	private final Log log = new Log(CircuitBreakerTransport.class.getName());
+	private long window = 10000L;
+	private int minimumCalls = 10;
+	private double failureRateThreshold = 0.5;
+	private long slowCallDuration = 5000L;
+	private double slowCallRateThreshold = 0.5;
+	private long openDuration = 30000L;
+	private int probes = 3;
+
+	private final long[] bucketIds = new long[BUCKETS];
+	private final int[] bucketCalls = new int[BUCKETS];
+	private final int[] bucketFailures = new int[BUCKETS];
+	private final int[] bucketSlow = new int[BUCKETS];
+	private State state = State.CLOSED;
+	private long openedAt;
+	private int probesInFlight;
+	private int probeSuccesses;
+	private long rejected;
+	private long timesOpened;
+
+	public CircuitBreakerTransport(Transport transport) {
+		this.transport = transport;
+	}
+
+	@Override
+	public Response get(Request request) throws IOException {
+		boolean probe = acquire();
+		long start = System.currentTimeMillis();
+		Response response;
+		try {
+			response = transport.get(request);
+		} catch (IOException e) {
+			record(probe, false, System.currentTimeMillis() - start);
+			throw e;
+		} catch (RuntimeException e) {
+			record(probe, false, System.currentTimeMillis() - start);
+			throw e;
+		}
+		return new Response(response.status, new RecordingBody(response.body, probe, response.status < 500, start));
+	}
+
+	/**
+	 * Records the call once its body has been read and closed, or failed to read
+	 */
+	private final class RecordingBody extends FilterInputStream {
+		private final boolean probe;
+		private final long start;
+		private boolean success;
+		private boolean recorded;
+
+		RecordingBody(InputStream in, boolean probe, boolean success, long start) {
+			super(in);
+			this.probe = probe;
+			this.success = success;
+			this.start = start;
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				return super.read();
+			} catch (IOException e) {
+				success = false;
+				throw e;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				return super.read(b, off, len);
+			} catch (IOException e) {
+				success = false;
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (!recorded) {
+					recorded = true;
+					record(probe, success, System.currentTimeMillis() - start);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the request is a half-open probe
+	 * @throws CircuitOpenException if the request is not allowed
+	 */
+	private synchronized boolean acquire() throws CircuitOpenException {
+		if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+			transition(State.HALF_OPEN);
+			probesInFlight = 0;
+			probeSuccesses = 0;
+		}
+		if (state == State.CLOSED) {
+			return false;
+		}
+		if (state == State.HALF_OPEN && probesInFlight + probeSuccesses < probes) {
+			probesInFlight++;
+			return true;
+		}
+		rejected++;
+		throw new CircuitOpenException();
+	}
+
+	private synchronized void record(boolean probe, boolean success, long duration) {
+		boolean slow = duration >= slowCallDuration;
+		if (probe) {
+			probesInFlight--;
+			if (state != State.HALF_OPEN) {
+				return;
+			}
+			if (!success || slow) {
+				open();
+			} else if (++probeSuccesses >= probes) {
+				transition(State.CLOSED);
+				for (int i = 0; i < BUCKETS; i++) {
+					bucketIds[i] = -1;
+				}
+			}
+			return;
+		}
+		if (state != State.CLOSED) {
+			// Sent before the breaker opened
+			return;
+		}
+		int bucket = bucket(System.currentTimeMillis());
+		bucketCalls[bucket]++;
+		if (!success) {
+			bucketFailures[bucket]++;
+		}
+		if (slow) {
+			bucketSlow[bucket]++;
+		}
+		int calls = 0, failures = 0, slowCalls = 0;
+		long current = bucketIds[bucket];
+		for (int i = 0; i < BUCKETS; i++) {
+			if (current - bucketIds[i] < BUCKETS) {
+				calls += bucketCalls[i];
+				failures += bucketFailures[i];
+				slowCalls += bucketSlow[i];
+			}
+		}
+		if (calls >= minimumCalls && ((double) failures / calls >= failureRateThreshold
+				|| (double) slowCalls / calls >= slowCallRateThreshold)) {
+			open();
+		}
+	}
+
+	/**
+	 * @return the index of the bucket for a time, cleared if it was last used for an older time
+	 */
+	private int bucket(long now) {
+		long id = now / (window / BUCKETS);
+		int index = (int) (id % BUCKETS);
+		if (bucketIds[index] != id) {
+			bucketIds[index] = id;
+			bucketCalls[index] = 0;
+			bucketFailures[index] = 0;
+			bucketSlow[index] = 0;
+		}
+		return index;
+	}
+
+	private void open() {
+		openedAt = System.currentTimeMillis();
+		timesOpened++;
+		transition(State.OPEN);
+	}
+
+	private void transition(State to) {
+		if (state != to) {
+			log.info("Circuit breaker {} -> {}", state, to);
+			state = to;
+		}
+	}
+
+	/**
+	 * Rates over the current window
+	 */
+	private synchronized double rate(boolean slow) {
+		int calls = 0, count = 0;
+		long current = System.currentTimeMillis() / (window / BUCKETS);
+		for (int i = 0; i < BUCKETS; i++) {
+			if (current - bucketIds[i] < BUCKETS) {
+				calls += bucketCalls[i];
+				count += slow ? bucketSlow[i] : bucketFailures[i];
+			}
+		}
+		return calls == 0 ? 0 : (double) count / calls;
+	}
+
+	/**
+	 * Adds gauges for the state (0 closed, 1 open, 2 half-open), failure and slow call rates,
+	 * rejected requests and times opened
+	 * @param metrics the metrics
+	 * @param name the gauge name prefix, e.g. "circuit"
+	 */
+	public void addGauges(Metrics metrics, String name) {
+		metrics.addGauge(name + ".state", new Gauge() {
+			@Override
+			public double getValue() {
+				return getState().ordinal();
+			}
+		});
+		metrics.addGauge(name + ".failureRate", new Gauge() {
+			@Override
+			public double getValue() {
+				return rate(false);
+			}
+		});
+		metrics.addGauge(name + ".slowCallRate", new Gauge() {
+			@Override
+			public double getValue() {
+				return rate(true);
+			}
+		});
+		metrics.addGauge(name + ".rejected", new Gauge() {
+			@Override
+			public double getValue() {
+				return getRejected();
+			}
+		});
+		metrics.addGauge(name + ".opened", new Gauge() {
+			@Override
+			public double getValue() {
+				return getTimesOpened();
+			}
+		});
+	}
+
+	/**
+	 * @return the current state (an open breaker whose open duration has passed is reported open
+	 * until the next request)
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the number of requests refused while open
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return the number of times the breaker opened
+	 */
+	public synchronized long getTimesOpened() {
+		return timesOpened;
+	}
+
+	/**
+	 * @param window the length of the rolling window, in milliseconds - default 10 s
+	 */
+	public synchronized void setWindow(long window) {
+		if (window < BUCKETS) {
+			throw new IllegalArgumentException("Window too short: " + window);
+		}
+		this.window = window;
+		for (int i = 0; i < BUCKETS; i++) {
+			bucketIds[i] = -1;
+		}
+	}
+
+	public synchronized long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param minimumCalls the number of calls in the window needed before the breaker can open - default 10
+	 */
+	public synchronized void setMinimumCalls(int minimumCalls) {
+		this.minimumCalls = minimumCalls;
+	}
+
+	public synchronized int getMinimumCalls() {
+		return minimumCalls;
+	}
+
+	/**
+	 * @param failureRateThreshold the share of failed calls that opens the breaker - default 0.5
+	 */
+	public synchronized void setFailureRateThreshold(double failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	public synchronized double getFailureRateThreshold() {
+		return failureRateThreshold;
+	}
+
+	/**
+	 * @param slowCallDuration how long a response may take before the call counts as slow, in milliseconds - default 5 s
+	 */
+	public synchronized void setSlowCallDuration(long slowCallDuration) {
+		this.slowCallDuration = slowCallDuration;
+	}
+
+	public synchronized long getSlowCallDuration() {
+		return slowCallDuration;
+	}
+
+	/**
+	 * @param slowCallRateThreshold the share of slow calls that opens the breaker - default 0.5
+	 */
+	public synchronized void setSlowCallRateThreshold(double slowCallRateThreshold) {
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	public synchronized double getSlowCallRateThreshold() {
+		return slowCallRateThreshold;
+	}
+
+	/**
+	 * @param openDuration how long the breaker stays open before probing, in milliseconds - default 30 s
+	 */
+	public synchronized void setOpenDuration(long openDuration) {
+		this.openDuration = openDuration;
+	}
+
+	public synchronized long getOpenDuration() {
+		return openDuration;
+	}
+
+	/**
+	 * @param probes the number of successful probes needed to close the breaker - default 3
+	 */
+	public synchronized void setProbes(int probes) {
+		this.probes = probes;
+	}
+
+	public synchronized int getProbes() {
+		return probes;
+	}
+}
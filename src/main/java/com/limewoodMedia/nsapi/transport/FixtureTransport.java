@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An in-memory transport answering from registered fixtures, for tests and benchmarks without
+ * any network. A request gets the response of the first fixture whose key occurs in its URL
+ * (e.g. {@code "nation=testlandia"} or {@code "q=happenings"}), or a 404.
+ * @author Afforess
+ *
+ */
+public class FixtureTransport implements Transport {
+	private final List<Fixture> fixtures = new ArrayList<Fixture>();
+	private final List<String> requested = new ArrayList<String>();
+
+	private static final class Fixture {
+		final String key;
+		final int status;
+		final byte[] body;
+
+		Fixture(String key, int status, byte[] body) {
+			this.key = key;
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Adds a 200 response
+	 * @param key text the request URL must contain
+	 * @param body the response body
+	 * @return this transport
+	 */
+	public FixtureTransport add(String key, byte[] body) {
+		return add(key, 200, body);
+	}
+
+	/**
+	 * Adds a response
+	 * @param key text the request URL must contain
+	 * @param status the status code
+	 * @param body the response body
+	 * @return this transport
+	 */
+	public synchronized FixtureTransport add(String key, int status, byte[] body) {
+		fixtures.add(new Fixture(key, status, body));
+		return this;
+	}
+
+	/**
+	 * @return the URLs requested so far
+	 */
+	public synchronized List<String> getRequested() {
+		return Collections.unmodifiableList(new ArrayList<String>(requested));
+	}
+
+	@Override
+	public synchronized Response get(Request request) throws IOException {
+		requested.add(request.url);
+		for (Fixture fixture : fixtures) {
+			if (request.url.contains(fixture.key)) {
+				return new Response(fixture.status, new ByteArrayInputStream(fixture.body));
+			}
+		}
+		return new Response(404, new ByteArrayInputStream(new byte[0]));
+	}
+}
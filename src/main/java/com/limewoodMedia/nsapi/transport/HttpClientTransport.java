@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.CoreProtocolPNames;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Apache HttpClient transport (the default). Connections are pooled and kept alive between requests.
+ * The request timeout bounds the wait for a pooled connection, connecting and every read.
+ * @author Afforess
+ *
+ */
+public class HttpClientTransport implements Transport {
+	public static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+	private final DefaultHttpClient client;
+
+	public HttpClientTransport() {
+		this(DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * @param maxConnections the max number of pooled connections to the API
+	 */
+	public HttpClientTransport(int maxConnections) {
+		PoolingClientConnectionManager connections = new PoolingClientConnectionManager();
+		connections.setMaxTotal(maxConnections);
+		connections.setDefaultMaxPerRoute(maxConnections);
+		client = new DefaultHttpClient(connections);
+		client.getParams().setParameter(ClientPNames.ALLOW_CIRCULAR_REDIRECTS, true);
+	}
+
+	@Override
+	public Response get(Request request) throws IOException {
+		HttpGet get = new HttpGet(request.url);
+		HttpParams params = get.getParams();
+		if (request.proxyHost != null) {
+			params.setParameter(ConnRoutePNames.DEFAULT_PROXY, new HttpHost(request.proxyHost, request.proxyPort));
+		}
+		// Waiting for a pooled connection counts against the timeout too
+		params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, request.timeout);
+		HttpConnectionParams.setConnectionTimeout(params, (int) request.timeout);
+		HttpConnectionParams.setSoTimeout(params, (int) request.timeout);
+		params.setParameter(CoreProtocolPNames.USER_AGENT, request.userAgent);
+		HttpResponse response = client.execute(get);
+		InputStream body = response.getEntity() != null ? response.getEntity().getContent()
+				: new ByteArrayInputStream(new byte[0]);
+		return new Response(response.getStatusLine().getStatusCode(), body);
+	}
+
+	/**
+	 * Closes the pooled connections
+	 */
+	public void shutdown() {
+		client.getConnectionManager().shutdown();
+	}
+}
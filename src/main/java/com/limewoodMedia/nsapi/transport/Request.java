@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.transport;
+
+/**
+ * A GET request to the API
+ * @author Afforess
+ *
+ */
+public class Request {
+	public final String url;
+	public final String userAgent;
+	/** Connect and read timeout, in milliseconds */
+	public final long timeout;
+	/** The proxy host, or null for none */
+	public final String proxyHost;
+	public final int proxyPort;
+
+	public Request(String url, String userAgent, long timeout, String proxyHost, int proxyPort) {
+		this.url = url;
+		this.userAgent = userAgent;
+		this.timeout = timeout;
+		this.proxyHost = proxyHost;
+		this.proxyPort = proxyPort;
+	}
+
+	@Override
+	public String toString() {
+		return "GET " + url;
+	}
+}
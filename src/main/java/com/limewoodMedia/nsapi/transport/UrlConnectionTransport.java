@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * Transport using the JDK's {@link HttpURLConnection}, without any third party client.
+ * The JDK keeps connections alive between requests as long as bodies are read to the end and closed.
+ * @author Afforess
+ *
+ */
+public class UrlConnectionTransport implements Transport {
+	@Override
+	public Response get(Request request) throws IOException {
+		URL url = new URL(request.url);
+		HttpURLConnection connection = (HttpURLConnection) (request.proxyHost != null
+				? url.openConnection(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(request.proxyHost, request.proxyPort)))
+				: url.openConnection());
+		connection.setConnectTimeout((int) request.timeout);
+		connection.setReadTimeout((int) request.timeout);
+		connection.setRequestProperty("User-Agent", request.userAgent);
+		connection.setInstanceFollowRedirects(true);
+		int status = connection.getResponseCode();
+		InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		return new Response(status, body != null ? body : new ByteArrayInputStream(new byte[0]));
+	}
+}
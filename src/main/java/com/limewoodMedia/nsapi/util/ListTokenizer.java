@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2013 Afforess
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.limewoodMedia.nsapi.util;
+
+import java.io.IOException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Splits delimited list shards (members, nations, endorsements...) straight from
+ * the parser's character buffer, without building the whole text as a String first
+ * @author Afforess
+ *
+ */
+public final class ListTokenizer {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private ListTokenizer() {
+	}
+
+	/**
+	 * Reads the text of the current element and splits it on the delimiter.
+	 * Works like xpp.nextText().split(delimiter) - the parser must be positioned on
+	 * the START_TAG and is left on the matching END_TAG.
+	 * 
+	 * @param xpp the parser, positioned on a START_TAG
+	 * @param delimiter the character separating the names
+	 * @return the names in the list
+	 * @throws XmlPullParserException if the element contains anything but text
+	 * @throws IOException if there was a problem reading the stream
+	 */
+	public static String[] split(XmlPullParser xpp, char delimiter)
+		throws XmlPullParserException, IOException {
+		if (xpp.getEventType() != XmlPullParser.START_TAG) {
+			throw new XmlPullParserException("Parser must be on START_TAG to read list", xpp, null);
+		}
+		String[] names;
+		if (xpp.next() == XmlPullParser.TEXT) {
+			int[] holder = new int[2];
+			char[] buf = xpp.getTextCharacters(holder);
+			names = split(buf, holder[0], holder[1], delimiter);
+			xpp.next();
+		} else {
+			names = new String[] {""};
+		}
+		if (xpp.getEventType() != XmlPullParser.END_TAG) {
+			throw new XmlPullParserException("END_TAG expected after list text", xpp, null);
+		}
+		return names;
+	}
+
+	/**
+	 * Splits a range of characters on the delimiter, with the same semantics as
+	 * String.split (trailing empty names are dropped)
+	 * 
+	 * @param buf the characters
+	 * @param start the start of the range
+	 * @param length the length of the range
+	 * @param delimiter the character separating the names
+	 * @return the names in the range
+	 */
+	public static String[] split(char[] buf, int start, int length, char delimiter) {
+		int end = start + length;
+		String[] names = null;
+		int count = 0;
+		int from = start;
+		for (int i = start; i < end; i++) {
+			if (buf[i] == delimiter) {
+				if (names == null) {
+					names = new String[INITIAL_CAPACITY];
+				} else if (count == names.length) {
+					names = grow(names);
+				}
+				names[count++] = new String(buf, from, i - from);
+				from = i + 1;
+			}
+		}
+		if (names == null) {
+			// No delimiter, the whole range is the only name
+			return new String[] {new String(buf, start, length)};
+		}
+		if (from < end) {
+			if (count == names.length) {
+				names = grow(names);
+			}
+			names[count++] = new String(buf, from, end - from);
+		}
+		while (count > 0 && names[count - 1].length() == 0) {
+			count--;
+		}
+		if (count == names.length) {
+			return names;
+		}
+		String[] result = new String[count];
+		System.arraycopy(names, 0, result, 0, count);
+		return result;
+	}
+
+	private static String[] grow(String[] names) {
+		String[] grown = new String[names.length << 1];
+		System.arraycopy(names, 0, grown, 0, names.length);
+		return grown;
+	}
+}